@@ -0,0 +1,69 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import org.easymock.classextension.internal.ClassExtensionHelper;
+import org.easymock.classextension.internal.MocksClassControl;
+import org.easymock.internal.MockInvocationHandler;
+import org.easymock.internal.RuntimeExceptionWrapper;
+
+/**
+ * A class extension control that creates its class mocks through
+ * ClassMockFactory and its interface mocks through InterfaceMockFactory, so
+ * the work of mocking a type, down to the Object methods each mock's filter
+ * answers, is done once per type rather than once per mock, and what is the
+ * same for every mock of a type is shared between them. Only the handler
+ * tying a mock to this control is made for each mock. Class mocks that call a
+ * constructor are created as usual.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+class ClassMockControl extends MocksClassControl {
+
+	private static final long serialVersionUID = 1L;
+
+	ClassMockControl(MockType type) {
+		super(type);
+	}
+
+	@Override
+	public <T> T createMock(Class<T> toMock) {
+		return createMock(null, toMock);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public <T> T createMock(String name, Class<T> toMock) {
+
+		if (!toMock.isInterface() && ClassExtensionHelper.getCurrentConstructorArgs() != null) {
+			return super.createMock(name, toMock);
+		}
+
+		try {
+			getState().assertRecordState();
+			MockInvocationHandler delegate = new MockInvocationHandler(this);
+
+			if (toMock.isInterface()) {
+				return (T) InterfaceMockFactory.INSTANCE.createMock(toMock, delegate, name);
+			}
+
+			return (T) ClassMockFactory.INSTANCE.createMock(toMock, delegate, name);
+
+		} catch (RuntimeExceptionWrapper e) {
+			throw (RuntimeException) e.getRuntimeException().fillInStackTrace();
+		}
+	}
+}
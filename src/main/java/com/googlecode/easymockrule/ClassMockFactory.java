@@ -0,0 +1,252 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import java.lang.ref.Reference;
+import java.lang.ref.SoftReference;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import net.sf.cglib.core.CollectionUtils;
+import net.sf.cglib.core.VisibilityPredicate;
+import net.sf.cglib.proxy.Enhancer;
+import net.sf.cglib.proxy.Factory;
+
+import org.easymock.classextension.internal.ClassProxyFactory.MockMethodInterceptor;
+import org.easymock.internal.Invocation;
+import org.easymock.internal.MockInvocationHandler;
+import org.easymock.internal.ObjectMethodsFilter;
+import org.objenesis.ObjenesisStd;
+import org.objenesis.instantiator.ObjectInstantiator;
+
+/**
+ * Creates class mocks the way the class extension's ClassProxyFactory does,
+ * but keeps what it works out for each mocked class - the enhanced class, an
+ * Objenesis instantiator for it, its callback binding field, and the class's
+ * own equals, hashCode and toString methods - so that creating another mock of
+ * the same class is just an instantiation. Each mock's ObjectMethodsFilter is
+ * made from those methods too, rather than by its constructor, which would
+ * look them up again for every mock. The cache refers weakly to the mocked
+ * classes, and softly to what it keeps for them, so it doesn't stop a class
+ * loader being collected.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+class ClassMockFactory {
+
+	static final ClassMockFactory INSTANCE = new ClassMockFactory();
+
+	private static final ObjectInstantiator FILTERS = new ObjenesisStd(false)
+			.getInstantiatorOf(ObjectMethodsFilter.class);
+
+	private static final Field EQUALS_METHOD = filterField("equalsMethod");
+
+	private static final Field HASH_CODE_METHOD = filterField("hashCodeMethod");
+
+	private static final Field TO_STRING_METHOD = filterField("toStringMethod");
+
+	private static final Field DELEGATE = filterField("delegate");
+
+	private static final Field NAME = filterField("name");
+
+	private final Lock lock = new ReentrantLock();
+
+	private final Map<Class<?>, Reference<MockClass>> mockClasses = new WeakHashMap<Class<?>, Reference<MockClass>>();
+
+	private final ObjenesisStd objenesis = new ObjenesisStd(false);
+
+	private ClassMockFactory() {
+	}
+
+	/**
+	 * Create a mock of the class, answering through the given handler.
+	 * 
+	 * @param toMock
+	 * @param delegate
+	 *            the handler of the control the mock belongs to
+	 * @param name
+	 *            the mock's name, or null for none
+	 * @return the mock
+	 */
+	Object createMock(Class<?> toMock, MockInvocationHandler delegate, String name) {
+
+		MockClass mockClass = getMockClass(toMock);
+
+		// Answer equals, hashCode and toString as the mocked class declares
+		// them, which is what the enhanced class passes to the handler.
+		ObjectMethodsFilter filter = newFilter(delegate, name, mockClass.equalsMethod, mockClass.hashCodeMethod,
+				mockClass.toStringMethod);
+
+		Factory mock = (Factory) mockClass.instantiator.newInstance();
+
+		try {
+			// Otherwise the first getCallback would bind whatever callbacks the
+			// class extension last registered on this thread over ours.
+			mockClass.bound.setBoolean(mock, true);
+
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException("Can't mock " + toMock.getName(), e);
+		}
+
+		mock.setCallback(0, new MockMethodInterceptor(filter));
+
+		return mock;
+	}
+
+	// Generating an enhanced class takes a while, so a Lock is held rather
+	// than the map's monitor, which would pin the carrier of a virtual thread.
+	private MockClass getMockClass(Class<?> toMock) {
+
+		lock.lock();
+		try {
+			Reference<MockClass> cached = mockClasses.get(toMock);
+			MockClass mockClass = cached == null ? null : cached.get();
+
+			if (mockClass == null) {
+				mockClass = new MockClass(toMock, objenesis);
+				mockClasses.put(toMock, new SoftReference<MockClass>(mockClass));
+			}
+
+			return mockClass;
+
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @param toMock
+	 * @return true if what it takes to mock the class is cached
+	 */
+	boolean isCached(Class<?> toMock) {
+
+		lock.lock();
+		try {
+			Reference<MockClass> cached = mockClasses.get(toMock);
+			return cached != null && cached.get() != null;
+
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Make the ObjectMethodsFilter for a mock, recognising equals, hashCode
+	 * and toString by the given methods, which are shared by every mock of a
+	 * type. The filter isn't constructed, as its constructor would look up
+	 * copies of them for itself, but it checks the name the same way.
+	 * 
+	 * @param delegate
+	 *            the handler of the control the mock belongs to
+	 * @param name
+	 *            the mock's name, or null for none
+	 * @param equalsMethod
+	 * @param hashCodeMethod
+	 * @param toStringMethod
+	 * @return the filter
+	 */
+	static ObjectMethodsFilter newFilter(MockInvocationHandler delegate, String name, Method equalsMethod,
+			Method hashCodeMethod, Method toStringMethod) {
+
+		if (name != null && !Invocation.isJavaIdentifier(name)) {
+			throw new IllegalArgumentException(String.format("'%s' is not a valid Java identifier.", name));
+		}
+
+		ObjectMethodsFilter filter = (ObjectMethodsFilter) FILTERS.newInstance();
+
+		try {
+			EQUALS_METHOD.set(filter, equalsMethod);
+			HASH_CODE_METHOD.set(filter, hashCodeMethod);
+			TO_STRING_METHOD.set(filter, toStringMethod);
+			DELEGATE.set(filter, delegate);
+			NAME.set(filter, name);
+
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException("Can't make the filter for " + name, e);
+		}
+
+		return filter;
+	}
+
+	private static Field filterField(String name) {
+
+		try {
+			Field f = ObjectMethodsFilter.class.getDeclaredField(name);
+			f.setAccessible(true);
+			return f;
+
+		} catch (NoSuchFieldException e) {
+			throw new IllegalStateException("Unsupported EasyMock version", e);
+		}
+	}
+
+	/**
+	 * What it takes to create mocks of one class.
+	 */
+	private static class MockClass {
+
+		private final ObjectInstantiator instantiator;
+
+		private final Field bound;
+
+		private final Method equalsMethod;
+
+		private final Method hashCodeMethod;
+
+		private final Method toStringMethod;
+
+		MockClass(Class<?> toMock, ObjenesisStd objenesis) {
+
+			MockEnhancer enhancer = new MockEnhancer();
+			enhancer.setSuperclass(toMock);
+			enhancer.setCallbackType(MockMethodInterceptor.class);
+
+			Class<?> enhanced = enhancer.createClass();
+			instantiator = objenesis.getInstantiatorOf(enhanced);
+
+			try {
+				bound = enhanced.getDeclaredField("CGLIB$BOUND");
+				bound.setAccessible(true);
+
+				equalsMethod = toMock.getMethod("equals", Object.class);
+				hashCodeMethod = toMock.getMethod("hashCode");
+				toStringMethod = toMock.getMethod("toString");
+
+			} catch (NoSuchFieldException e) {
+				throw new IllegalStateException("Unsupported CGLIB version", e);
+
+			} catch (NoSuchMethodException e) {
+				throw new IllegalStateException("Can't find the Object methods of " + toMock.getName(), e);
+			}
+		}
+	}
+
+	// Like ClassProxyFactory, mock classes with no visible constructors too,
+	// since the mock is never constructed.
+	private static class MockEnhancer extends Enhancer {
+
+		@SuppressWarnings("rawtypes")
+		@Override
+		protected void filterConstructors(Class sc, List constructors) {
+			CollectionUtils.filter(constructors, new VisibilityPredicate(sc, true));
+		}
+	}
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import org.easymock.IArgumentMatcher;
+
+/**
+ * A Hamcrest matcher that has been adapted for EasyMock once, ready to be used
+ * in any number of expectations with EasyMockRule.with. Create it with
+ * EasyMockRule.compile and keep it in a static field of the test class.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+public final class CompiledMatcher<T> {
+
+	private final IArgumentMatcher adapted;
+
+	CompiledMatcher(IArgumentMatcher adapted) {
+		this.adapted = adapted;
+	}
+
+	/**
+	 * @return the argument matcher to report to EasyMock
+	 */
+	IArgumentMatcher getAdapted() {
+		return adapted;
+	}
+}
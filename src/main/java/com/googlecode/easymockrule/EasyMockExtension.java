@@ -0,0 +1,85 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import java.util.function.Function;
+
+import org.junit.jupiter.api.extension.AfterEachCallback;
+import org.junit.jupiter.api.extension.BeforeEachCallback;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.junit.jupiter.api.extension.ExtensionContext.Namespace;
+import org.junit.jupiter.api.extension.ExtensionContext.Store;
+import org.junit.jupiter.api.extension.ParameterContext;
+import org.junit.jupiter.api.extension.ParameterResolver;
+
+/**
+ * JUnit Jupiter extension that does for a JUnit 5 test what EasyMockRule does
+ * for a JUnit 4 test: register it with &#64;ExtendWith(EasyMockExtension.class)
+ * and the same annotations are honoured. Declare a MockManager parameter on a
+ * test or &#64;BeforeEach method to replay the mocks or create more.
+ * <p>
+ * The test class's metadata is kept in the root store, so it is found once
+ * per class for the whole run, and each test's mocks are kept in the test's
+ * own store, so tests can run in parallel. A test class that shares one
+ * instance between tests, with &#64;TestInstance(PER_CLASS), can't run its
+ * tests in parallel, because the mocks are held in the instance's fields.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+public class EasyMockExtension implements BeforeEachCallback, AfterEachCallback, ParameterResolver {
+
+	private static final Namespace NAMESPACE = Namespace.create(EasyMockExtension.class);
+
+	private static final Function<Class<?>, TestClassMetadata> FIND_METADATA = new Function<Class<?>, TestClassMetadata>() {
+		@Override
+		public TestClassMetadata apply(Class<?> testClass) {
+			return new TestClassMetadata(testClass);
+		}
+	};
+
+	@Override
+	public void beforeEach(ExtensionContext context) throws Exception {
+
+		Store classes = context.getRoot().getStore(NAMESPACE);
+		TestClassMetadata metadata = classes.getOrComputeIfAbsent(context.getRequiredTestClass(), FIND_METADATA,
+				TestClassMetadata.class);
+
+		EasyMockRule mocks = new EasyMockRule(context.getRequiredTestInstance());
+		context.getStore(NAMESPACE).put(EasyMockRule.class, mocks);
+
+		mocks.before(metadata);
+	}
+
+	@Override
+	public void afterEach(ExtensionContext context) throws Exception {
+
+		EasyMockRule mocks = context.getStore(NAMESPACE).remove(EasyMockRule.class, EasyMockRule.class);
+
+		if (mocks != null) {
+			mocks.after(!context.getExecutionException().isPresent());
+		}
+	}
+
+	@Override
+	public boolean supportsParameter(ParameterContext parameterContext, ExtensionContext extensionContext) {
+		return parameterContext.getParameter().getType() == MockManager.class;
+	}
+
+	@Override
+	public Object resolveParameter(ParameterContext parameterContext, ExtensionContext extensionContext) {
+		return extensionContext.getStore(NAMESPACE).get(EasyMockRule.class, EasyMockRule.class).getMockManager();
+	}
+}
@@ -16,17 +16,46 @@
 package com.googlecode.easymockrule;
 
 import static com.googlecode.easymockrule.InjectionUtils.inject;
-import static com.googlecode.easymockrule.InjectionUtils.isUserDefined;
 
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Array;
 import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.time.Clock;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
-
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.easymock.EasyMock;
+import org.easymock.IExpectationSetters;
 import org.hamcrest.Matcher;
+import org.hamcrest.StringDescription;
 import org.hamcrest.integration.EasyMock2Adapter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
 import org.junit.rules.TestRule;
 import org.junit.runner.Description;
+import org.junit.runners.model.FrameworkField;
+import org.junit.runners.model.FrameworkMethod;
 import org.junit.runners.model.Statement;
+import org.junit.runners.model.TestClass;
+
+import com.googlecode.easymockrule.TestClassMetadata.MockField;
+import com.googlecode.easymockrule.TestClassMetadata.TestSubjectField;
+import com.googlecode.easymockrule.WiringPlan.SubjectWiring;
 
 /**
  * JUnit Rule that automates the creation, injection, and verification of mocks
@@ -36,18 +65,52 @@ import org.junit.runners.model.Statement;
  * Annotate a class with &#64;TestSubject and the mocks will be injected
  * automatically. Wiring is attempted first by field name if the field name of
  * your mock in your test class matches the field name in the TestSubject. If
- * that fails, wiring by type will be attempted.
+ * that fails, wiring by type will be attempted. A TestSubject that the test
+ * hasn't created itself is created with its greediest constructor that can be
+ * satisfied by the mocks and other TestSubjects, matched by type, in which case
+ * its fields are left alone. TestSubjects are also injected into the fields of
+ * other TestSubjects, by name and then by type. A test method annotated with
+ * &#64;LoadTest is run many times on several threads against the same mocks.
  * 
  * @author Alistair Todd <ringracer@gmail.com>
  */
 public class EasyMockRule implements TestRule {
 
+	private static final List<Class<?>> SCHEDULER_TYPES = Arrays.<Class<?>> asList(ScheduledExecutorService.class,
+			ExecutorService.class, Executor.class);
+
+	private static final int MAX_COMPILED_MATCHERS = 1024;
+
+	private static final ConcurrentMap<String, CompiledMatcher<?>> COMPILED_MATCHERS = new ConcurrentHashMap<String, CompiledMatcher<?>>();
+
 	private Object testClass;
 
 	private List<Object> testSubjects = new ArrayList<Object>();
 
+	private List<Field> managedFields = new ArrayList<Field>();
+
+	private List<Closeable> resources = new ArrayList<Closeable>();
+
+	private List<LoopbackServer<?>> servers = new ArrayList<LoopbackServer<?>>();
+
 	private MockManager mocks = new MockManager();
 
+	private MockLeakDetector leakDetector;
+
+	private boolean failFast;
+
+	private LoadTestReport loadTestReport;
+
+	private long setupNanos;
+
+	private long testStart;
+
+	private TestClassMetadata metadata;
+
+	private boolean virtualTime;
+
+	private VirtualTimeScheduler scheduler;
+
 	/**
 	 * Supply a reference to the test class containing mock annotations.
 	 * 
@@ -57,9 +120,91 @@ public class EasyMockRule implements TestRule {
 		this.testClass = testClass;
 	}
 
+	/**
+	 * Fail a test that has otherwise passed if any of the mocks created by this
+	 * rule are still reachable once the rule has released them, for example
+	 * because a static field or a long lived collaborator still refers to one.
+	 * 
+	 * @return this rule, so that it can be enabled where the rule is declared
+	 */
+	public EasyMockRule detectLeaks() {
+		leakDetector = new MockLeakDetector();
+		return this;
+	}
+
+	/**
+	 * Back all the mocks this rule creates with one shared control per mock
+	 * type instead of a control per mock. Replay and verify then deal with a
+	 * few controls rather than every mock, and the order of calls is checked
+	 * across all the &#64;StrictMock fields together, as well as for each one.
+	 * 
+	 * @return this rule, so that it can be enabled where the rule is declared
+	 */
+	public EasyMockRule useSharedControls() {
+		mocks.shareControls();
+		return this;
+	}
+
+	/**
+	 * Keep the last few calls made to each mock this rule creates, overwriting
+	 * the oldest in a buffer allocated when the mock is created, and list them
+	 * in the failure when verification fails. Only the calls made in replay
+	 * state are kept.
+	 * 
+	 * @param size
+	 *            number of calls to keep for each mock
+	 * @return this rule, so that it can be enabled where the rule is declared
+	 */
+	public EasyMockRule keepRecentCalls(int size) {
+		mocks.keepRecentCalls(size);
+		return this;
+	}
+
+	/**
+	 * Abort the test on the first unexpected call to any mock this rule
+	 * creates, or any call over its expected limit, rather than letting a long
+	 * test run on to the end once it can only fail. Every later call to the
+	 * mocks fails with the same error, the test's thread is interrupted if the
+	 * call came from another thread, and the test fails with the unexpected
+	 * call even if the code under test caught the AssertionError.
+	 * 
+	 * @return this rule, so that it can be enabled where the rule is declared
+	 */
+	public EasyMockRule failFast() {
+		failFast = true;
+		return this;
+	}
+
+	/**
+	 * Give each test a VirtualTimeScheduler, injected into every test subject
+	 * with an empty field named scheduler, or else with one empty field
+	 * declared as a ScheduledExecutorService, ExecutorService or Executor. The
+	 * scheduler's Clock goes into every empty field declared as a
+	 * java.time.Clock. Fields that already hold a mock or value are left alone,
+	 * so a subject whose scheduler field is already set gets no other, and a
+	 * subject with more than one empty executor field fails the test. Time then
+	 * stands still until the test advances it, and the tasks the subjects
+	 * scheduled run on the test's thread as they fall due.
+	 * 
+	 * @return this rule, so that it can be enabled where the rule is declared
+	 */
+	public EasyMockRule useVirtualTime() {
+		virtualTime = true;
+		return this;
+	}
+
+	/**
+	 * @return the current test's VirtualTimeScheduler, or null if this rule
+	 *         doesn't use virtual time
+	 */
+	public VirtualTimeScheduler getScheduler() {
+		return scheduler;
+	}
+
 	/**
 	 * Register a Hamcrest matcher, allowing it to be used in EasyMock
-	 * expectations.
+	 * expectations. To reuse a matcher in many expectations, compile it once
+	 * and pass the CompiledMatcher instead.
 	 * 
 	 * @param matcher
 	 * @return
@@ -69,93 +214,556 @@ public class EasyMockRule implements TestRule {
 		return null;
 	}
 
+	/**
+	 * Use a compiled Hamcrest matcher in an EasyMock expectation.
+	 * 
+	 * @param matcher
+	 * @return
+	 */
+	public static <T> T with(CompiledMatcher<T> matcher) {
+		EasyMock.reportMatcher(matcher.getAdapted());
+		return null;
+	}
+
+	/**
+	 * Adapt a Hamcrest matcher for EasyMock once, so that it can be used in
+	 * many expectations without adapting it again each time. Compiling an
+	 * equivalent matcher again, one of the same class with the same
+	 * description, returns the same CompiledMatcher.
+	 * 
+	 * @param matcher
+	 * @return the compiled matcher, to pass to with
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> CompiledMatcher<T> compile(Matcher<T> matcher) {
+
+		String key = matcher.getClass().getName() + ':' + StringDescription.toString(matcher);
+		CompiledMatcher<?> compiled = COMPILED_MATCHERS.get(key);
+
+		if (compiled == null) {
+			compiled = new CompiledMatcher<T>(new EasyMock2Adapter(matcher));
+
+			// Matchers built from the data of a data-driven test could be
+			// endless, so only the first few are kept.
+			if (COMPILED_MATCHERS.size() < MAX_COMPILED_MATCHERS) {
+				CompiledMatcher<?> raced = COMPILED_MATCHERS.putIfAbsent(key, compiled);
+				compiled = raced == null ? compiled : raced;
+			}
+		}
+
+		return (CompiledMatcher<T>) compiled;
+	}
+
+	/**
+	 * Expect the call just recorded once for each of the given values, which
+	 * it returns in turn. This records one expectation, with one set of
+	 * argument matchers, however many values there are.
+	 * 
+	 * @param expectation
+	 *            what expect(...) returned for the call
+	 * @param values
+	 *            values to return, in order
+	 * @return the expectation, to add further results
+	 */
+	public static <T> IExpectationSetters<T> andReturnEach(IExpectationSetters<T> expectation,
+			Iterable<? extends T> values) {
+
+		boolean any = false;
+
+		for (T value : values) {
+			expectation = expectation.andReturn(value);
+			any = true;
+		}
+
+		if (!any) {
+			throw new IllegalArgumentException("No values to return");
+		}
+
+		return expectation;
+	}
+
 	@Override
-	public Statement apply(final Statement base, Description description) {
+	public Statement apply(final Statement base, final Description description) {
+
+		final LoadTest load = description.getAnnotation(LoadTest.class);
 
 		return new Statement() {
 			@Override
 			public void evaluate() throws Throwable {
-				createMocks();
-				base.evaluate();
-				mocks.verifyAll();
+
+				before(TestClassMetadata.forClass(testClass.getClass()));
+				boolean passed = false;
+
+				try {
+					if (load == null) {
+						base.evaluate();
+					} else {
+						runLoadTest(load, description);
+					}
+					passed = true;
+				} finally {
+					after(passed);
+				}
 			}
 		};
 	}
 
-	private void createMocks() throws Exception {
+	/**
+	 * Create and inject the mocks and test subjects before a test.
+	 * 
+	 * @param metadata
+	 *            the test class's metadata
+	 * @throws Exception
+	 */
+	void before(TestClassMetadata metadata) throws Exception {
+		EasyMockRuleStatistics.getInstance().testExecuted();
+
+		if (failFast) {
+			mocks.failFast();
+		}
 
-		findTestSubjects();
-		injectMocks();
+		this.metadata = metadata;
+		testStart = System.nanoTime();
+		createMocks(metadata);
+		setupNanos = System.nanoTime() - testStart;
 	}
 
-	private void findTestSubjects() throws Exception {
+	/**
+	 * Verify the mocks if the test passed, then release them. In fail fast
+	 * mode, fail first with any unexpected call, whether or not the test
+	 * passed. The time spent setting up and verifying a test that passes is
+	 * added to the SetupBaseline, and the cost of every test to the TestCosts.
+	 * 
+	 * @param passed
+	 *            true if the test itself passed
+	 * @throws Exception
+	 */
+	void after(boolean passed) throws Exception {
+
+		try {
+			stopServers();
 
-		for (Field f : testClass.getClass().getDeclaredFields()) {
+			if (failFast) {
+				mocks.checkpoint();
+			}
 
-			if (f.isAnnotationPresent(TestSubject.class)) {
-				testSubjects.add(getOrCreateTestSubjectInstance(f));
+			if (passed) {
+				long start = System.nanoTime();
+				mocks.verifyAll();
+				SetupBaseline.getInstance().measured(testClass.getClass(), setupNanos + System.nanoTime() - start);
 			}
+		} finally {
+			TestCosts.getInstance().measured(testClass.getClass(), metadata, setupNanos,
+					System.nanoTime() - testStart);
+			releaseReferences();
+		}
+
+		if (passed) {
+			checkForLeaks();
 		}
 	}
 
-	private Object getOrCreateTestSubjectInstance(Field f) throws Exception {
+	/**
+	 * @return the throughput and latency of the last &#64;LoadTest run by this
+	 *         rule, or null if it hasn't run one
+	 */
+	public LoadTestReport getLoadTestReport() {
+		return loadTestReport;
+	}
 
-		f.setAccessible(true);
-		Object testSubject = f.get(testClass);
+	/**
+	 * @return the MockManager holding this rule's mocks
+	 */
+	MockManager getMockManager() {
+		return mocks;
+	}
 
-		if (testSubject == null) {
-			return setNewInstance(f);
+	// The @Before and @After methods run once around all the iterations, in
+	// place of the statement JUnit built to run them around one. Any other
+	// rule would be skipped along with that statement, so isn't allowed.
+	private void runLoadTest(LoadTest load, Description description) throws Throwable {
+
+		TestClass type = new TestClass(testClass.getClass());
+		checkNoOtherRules(type);
+
+		LoadRunner runner = new LoadRunner(load, testClass, findTestMethod(type, description));
+
+		for (FrameworkMethod before : type.getAnnotatedMethods(Before.class)) {
+			before.invokeExplosively(testClass);
 		}
 
-		return testSubject;
+		try {
+			mocks.scaleExpectations(runner.getMaximumIterations());
+			loadTestReport = runner.run();
+			mocks.scaleExpectations((int) Math.min(loadTestReport.getIterations(), Integer.MAX_VALUE));
+
+		} finally {
+			for (FrameworkMethod after : type.getAnnotatedMethods(After.class)) {
+				after.invokeExplosively(testClass);
+			}
+		}
 	}
 
-	private Object setNewInstance(Field f) throws Exception {
+	private void checkNoOtherRules(TestClass type) throws IllegalAccessException {
 
-		Object testSubject = f.getType().newInstance();
+		boolean others = !type.getAnnotatedMethods(Rule.class).isEmpty();
 
-		f.setAccessible(true);
-		f.set(testClass, testSubject);
+		for (FrameworkField field : type.getAnnotatedFields(Rule.class)) {
+			others |= field.getField().get(testClass) != this;
+		}
 
-		return testSubject;
+		if (others) {
+			throw new IllegalStateException("@LoadTest can't run the other rules of " + type.getName()
+					+ ", move the load test to a class whose only rule is the EasyMockRule");
+		}
 	}
 
-	private void injectMocks() throws Exception {
+	// The description carries the test method's name, which runners such as
+	// Parameterized decorate, eg "test[0]", and its annotations.
+	private static FrameworkMethod findTestMethod(TestClass type, Description description) {
+
+		List<Annotation> annotations = new ArrayList<Annotation>(description.getAnnotations());
+		FrameworkMethod found = null;
+
+		for (FrameworkMethod method : type.getAnnotatedMethods(Test.class)) {
 
-		Class<?> currentClass = testClass.getClass();
+			String name = description.getMethodName();
 
-		while (isUserDefined(currentClass)) {
-			injectMocksForCurrentClass(currentClass);
-			currentClass = currentClass.getSuperclass();
+			if ((name.equals(method.getName()) || name.startsWith(method.getName() + "["))
+					&& annotations.equals(Arrays.asList(method.getAnnotations()))) {
+
+				if (found != null) {
+					throw new IllegalStateException("Can't tell which of " + found.getName() + " and "
+							+ method.getName() + " is the @LoadTest " + name);
+				}
+
+				found = method;
+			}
+		}
+
+		if (found == null) {
+			throw new IllegalStateException("Can't find the @LoadTest method " + description.getMethodName()
+					+ " in " + type.getName());
 		}
+
+		return found;
 	}
 
-	private void injectMocksForCurrentClass(Class<?> currentClass) throws Exception {
+	private void createMocks(TestClassMetadata metadata) throws Exception {
 
-		for (Field f : currentClass.getDeclaredFields()) {
+		List<MockField> mockFields = metadata.getMockFields();
+		Object[] candidates = new Object[mockFields.size() + metadata.getTestSubjectFields().size()];
 
-			if (f.isAnnotationPresent(Mock.class)) {
-				setAndInjectMock(f, mocks.createMock(f));
-				continue;
+		for (int i = 0; i < mockFields.size(); i++) {
+			candidates[i] = setMock(mockFields.get(i), createMock(mockFields.get(i)));
+		}
+
+		boolean[] injectable = findTestSubjects(metadata, candidates);
+
+		for (int i = 0; i < mockFields.size(); i++) {
+
+			Field f = mockFields.get(i).getField();
+
+			if (mockFields.get(i).getSize() > 0) {
+				InjectionUtils.injectBatch(testSubjects, candidates[i], f);
+			} else {
+				inject(testSubjects, candidates[i], f.getName());
 			}
+		}
+
+		wireTestSubjects(metadata, candidates, injectable);
+		fillConstructedSubjects(metadata, candidates, injectable);
+
+		if (virtualTime) {
+			injectScheduler(Arrays.asList(candidates).subList(mockFields.size(), candidates.length));
+		}
+	}
 
-			if (f.isAnnotationPresent(NiceMock.class)) {
-				setAndInjectMock(f, mocks.createNiceMock(f));
+	// Subjects created with arguments get whatever wasn't passed to their
+	// constructor, only into fields it left empty.
+	private void fillConstructedSubjects(TestClassMetadata metadata, Object[] candidates, boolean[] injectable)
+			throws Exception {
+
+		List<MockField> mockFields = metadata.getMockFields();
+		List<TestSubjectField> subjectFields = metadata.getTestSubjectFields();
+
+		for (int i = 0; i < subjectFields.size(); i++) {
+
+			if (injectable[i]) {
 				continue;
 			}
 
-			if (f.isAnnotationPresent(StrictMock.class)) {
-				setAndInjectMock(f, mocks.createStrictMock(f));
-				continue;
+			int self = mockFields.size() + i;
+			boolean[] passed = new boolean[candidates.length];
+
+			for (int index : subjectFields.get(i).getConstructor().getArgumentIndexes()) {
+				passed[index] = true;
+			}
+
+			for (int c = 0; c < candidates.length; c++) {
+
+				if (c == self || passed[c] || candidates[c] == null) {
+					continue;
+				}
+
+				if (c < mockFields.size() && mockFields.get(c).getSize() > 0) {
+					InjectionUtils.injectBatchIntoEmpty(candidates[self], candidates[c], mockFields.get(c).getField());
+					continue;
+				}
+
+				String name = c < mockFields.size() ? mockFields.get(c).getField().getName() : subjectFields.get(
+						c - mockFields.size()).getField().getName();
+
+				InjectionUtils.injectIntoEmpty(candidates[self], candidates[c], name);
+			}
+		}
+	}
+
+	// Unlike a mock, the one scheduler and its clock go to every subject that
+	// takes them, but never over a mock or value that is already there.
+	private void injectScheduler(List<Object> subjects) throws Exception {
+
+		scheduler = new VirtualTimeScheduler();
+		Clock clock = scheduler.getClock();
+
+		for (Object subject : subjects) {
+
+			Field target = findSchedulerField(subject);
+
+			if (target != null) {
+				target.set(subject, scheduler);
+			}
+
+			for (Class<?> c = subject.getClass(); InjectionUtils.isUserDefined(c); c = c.getSuperclass()) {
+				for (Field f : c.getDeclaredFields()) {
+					if (f.getType() == Clock.class && isEmpty(subject, f)) {
+						f.set(subject, clock);
+					}
+				}
+			}
+		}
+	}
+
+	// The empty field named scheduler that can hold it, or else the one empty
+	// field declared as an executor. A scheduler field that is already set
+	// means the subject has its executor, so it gets none.
+	private static Field findSchedulerField(Object subject) throws IllegalAccessException {
+
+		List<Field> empty = new ArrayList<Field>();
+
+		for (Class<?> c = subject.getClass(); InjectionUtils.isUserDefined(c); c = c.getSuperclass()) {
+			for (Field f : c.getDeclaredFields()) {
+
+				if (f.getName().equals("scheduler") && f.getType().isAssignableFrom(VirtualTimeScheduler.class)
+						&& !Modifier.isStatic(f.getModifiers())) {
+					return isEmpty(subject, f) ? f : null;
+				}
+
+				if (SCHEDULER_TYPES.contains(f.getType()) && isEmpty(subject, f)) {
+					empty.add(f);
+				}
 			}
 		}
+
+		if (empty.size() > 1) {
+			throw new IllegalStateException("Can't choose which of " + empty + " to inject the scheduler into,"
+					+ " name one of them scheduler");
+		}
+
+		return empty.isEmpty() ? null : empty.get(0);
 	}
 
-	private void setAndInjectMock(Field f, Object mock) throws Exception {
+	// An instance field that can be set and holds nothing yet.
+	private static boolean isEmpty(Object subject, Field f) throws IllegalAccessException {
+
+		if ((f.getModifiers() & (Modifier.STATIC | Modifier.FINAL)) != 0) {
+			return false;
+		}
 
 		f.setAccessible(true);
+		return f.get(subject) == null;
+	}
+
+	// Returns which of the test subjects may have any of their fields
+	// injected, ie those not created with constructor arguments.
+	private boolean[] findTestSubjects(TestClassMetadata metadata, Object[] candidates) throws Exception {
+
+		List<TestSubjectField> subjectFields = metadata.getTestSubjectFields();
+		int first = candidates.length - subjectFields.size();
+		boolean[] injectable = new boolean[subjectFields.size()];
+
+		for (int i = 0; i < subjectFields.size(); i++) {
+			candidates[first + i] = subjectFields.get(i).getField().get(testClass);
+			managedFields.add(subjectFields.get(i).getField());
+			injectable[i] = true;
+		}
+
+		for (int i : metadata.getWiringPlan().getCreationOrder()) {
+
+			if (candidates[first + i] == null) {
+				metadata.getWiringPlan().assertCreatable(i);
+				candidates[first + i] = setNewInstance(subjectFields.get(i), candidates);
+				injectable[i] = !subjectFields.get(i).getConstructor().takesArguments();
+			}
+		}
+
+		for (int i = 0; i < subjectFields.size(); i++) {
+			if (injectable[i]) {
+				testSubjects.add(candidates[first + i]);
+			}
+		}
+
+		return injectable;
+	}
+
+	private void wireTestSubjects(TestClassMetadata metadata, Object[] candidates, boolean[] injectable)
+			throws Exception {
+
+		Object[] subjects = new Object[injectable.length];
+		System.arraycopy(candidates, candidates.length - subjects.length, subjects, 0, subjects.length);
+
+		for (SubjectWiring wiring : metadata.getWiringPlan().getSubjectWirings()) {
+			if (injectable[wiring.getTarget()]) {
+				wiring.wire(subjects);
+			}
+		}
+	}
+
+	private Object setNewInstance(TestSubjectField f, Object[] candidates) throws Exception {
+
+		Object testSubject = f.getConstructor().newInstance(candidates);
+
+		f.getField().set(testClass, testSubject);
+
+		return testSubject;
+	}
+
+	private Object createMock(MockField mockField) {
+
+		if (mockField.getSize() > 0) {
+			return createBatch(mockField);
+		}
+
+		switch (mockField.getType()) {
+		case NICE:
+			return mocks.createNiceMock(mockField.getField());
+		case STRICT:
+			return mocks.createStrictMock(mockField.getField());
+		default:
+			return mocks.createMock(mockField.getField());
+		}
+	}
+
+	// A sized field gets its mocks in one batch, in the collection it declares.
+	private Object createBatch(MockField mockField) {
+
+		String name = mockField.getField().getName();
+		Class<?> fieldType = mockField.getField().getType();
+		List<?> batch = mocks.createMocks(name, mockField.getMockedType(), mockField.getType(), mockField.getSize());
+
+		for (int i = 0; i < batch.size(); i++) {
+			track(batch.get(i), name + i);
+		}
+
+		if (fieldType.isArray()) {
+			return batch.toArray((Object[]) Array.newInstance(mockField.getMockedType(), batch.size()));
+		}
+
+		if (fieldType == Map.class) {
+			Map<String, Object> named = new LinkedHashMap<String, Object>();
+
+			for (int i = 0; i < batch.size(); i++) {
+				named.put(name + i, batch.get(i));
+			}
+
+			return named;
+		}
+
+		return batch;
+	}
+
+	// The mocks in a batch are tracked as they are created.
+	private Object setMock(MockField mockField, Object mock) throws Exception {
+
+		Field f = mockField.getField();
 		f.set(testClass, mock);
-		inject(testSubjects, mock, f.getName());
+		managedFields.add(f);
+
+		return mockField.getSize() > 0 ? mock : track(mock, f.getName());
+	}
+
+	private <T> T track(T mock, String name) {
+
+		if (leakDetector != null) {
+			leakDetector.track(mock, name);
+		}
+
+		return mock;
+	}
+
+	// JUnit keeps every test instance until the end of the run, so drop the
+	// references that the rule put there, along with its own.
+	private void releaseReferences() throws Exception {
+
+		for (Closeable resource : resources) {
+			resource.close();
+		}
+		resources.clear();
+
+		for (Field f : managedFields) {
+			f.set(testClass, null);
+		}
+
+		managedFields.clear();
+		testSubjects.clear();
+		mocks.releaseAll();
+
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+	}
+
+	// Servers stop before the mocks are verified, so that no call can arrive
+	// after verification, and all of them stop even if one of them failed.
+	// Every server is closed whatever the others throw, and the first failure
+	// is thrown once they all are.
+	private void stopServers() throws IOException {
+
+		Throwable failure = null;
+
+		for (LoopbackServer<?> server : servers) {
+			try {
+				server.close();
+
+			} catch (Exception e) {
+				failure = failure == null ? e : failure;
+
+			} catch (Error e) {
+				failure = failure == null ? e : failure;
+			}
+		}
+
+		servers.clear();
+
+		if (failure instanceof IOException) {
+			throw (IOException) failure;
+		}
+
+		if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		}
+
+		if (failure instanceof Error) {
+			throw (Error) failure;
+		}
+	}
+
+	private void checkForLeaks() {
+
+		if (leakDetector != null) {
+			leakDetector.assertReleased();
+		}
 	}
 
 	/**
@@ -165,6 +773,79 @@ public class EasyMockRule implements TestRule {
 		mocks.replayAll();
 	}
 
+	/**
+	 * Fail now if any of the mocks has had an unexpected call, or a call over
+	 * its expected limit, so far, even if the code under test caught the
+	 * AssertionError. Expected calls that haven't happened yet are left for
+	 * the verification at the end of the test.
+	 */
+	public void checkpoint() {
+		mocks.checkpoint();
+	}
+
+	/**
+	 * Wrap a real implementation of an interface so that the calls made to it
+	 * through the returned wrapper are recorded to the given file, ready to be
+	 * replayed in another test with replayInteractions. The recording is
+	 * closed when the test completes.
+	 * 
+	 * @param type
+	 *            interface to record
+	 * @param delegate
+	 *            real implementation
+	 * @param file
+	 *            file to record to, which will be overwritten
+	 * @return recording wrapper for the delegate
+	 * @throws IOException
+	 */
+	public <T> T recordInteractions(Class<T> type, T delegate, File file) throws IOException {
+
+		InteractionRecorder<T> recorder = new InteractionRecorder<T>(type, delegate, file);
+		resources.add(recorder);
+
+		return recorder.getProxy();
+	}
+
+	/**
+	 * Start a TCP server on the loopback interface that answers framed
+	 * requests by calling the given service, typically one of this rule's
+	 * mocks, through the given codec, so that network client code can be
+	 * tested against the mock. Call this in the test or in an &#64;Before
+	 * method, once the mocks exist. The server stops when the test completes,
+	 * before the mocks are verified, and anything thrown while answering a
+	 * request fails the test.
+	 * 
+	 * @param service
+	 *            the service to answer requests
+	 * @param codec
+	 *            turns requests into calls on the service and back
+	 * @return the running server, to get its address from
+	 * @throws IOException
+	 */
+	public <T> LoopbackServer<T> serve(T service, FrameCodec<T> codec) throws IOException {
+
+		LoopbackServer<T> server = new LoopbackServer<T>(service, codec);
+		servers.add(server);
+
+		return server;
+	}
+
+	/**
+	 * Expect the calls in a recording made with recordInteractions on a mock
+	 * that is still in record state, typically one created by this rule. The
+	 * recording is memory mapped and read as the calls arrive rather than
+	 * loaded into expectations up front, and the calls must arrive in the
+	 * order they were recorded.
+	 * 
+	 * @param mock
+	 * @param file
+	 *            recording made with recordInteractions
+	 * @throws Exception
+	 */
+	public void replayInteractions(Object mock, File file) throws Exception {
+		new InteractionReplayer(EasyMockUtils.getMockedType(mock), file).expectOn(mock);
+	}
+
 	/**
 	 * Register a mock to be managed by this instance for verifyAll etc.
 	 * 
@@ -194,7 +875,7 @@ public class EasyMockRule implements TestRule {
 	 * @return
 	 */
 	public <T> T createMock(String name, Class<T> toMock) {
-		return mocks.createMock(name, toMock);
+		return track(mocks.createMock(name, toMock), name);
 	}
 
 	/**
@@ -208,7 +889,7 @@ public class EasyMockRule implements TestRule {
 	 * @return
 	 */
 	public <T> T createNiceMock(String name, Class<T> toMock) {
-		return mocks.createNiceMock(name, toMock);
+		return track(mocks.createNiceMock(name, toMock), name);
 	}
 
 	/**
@@ -222,7 +903,21 @@ public class EasyMockRule implements TestRule {
 	 * @return
 	 */
 	public <T> T createStrictMock(String name, Class<T> toMock) {
-		return mocks.createStrictMock(name, toMock);
+		return track(mocks.createStrictMock(name, toMock), name);
+	}
+
+	/**
+	 * Create a mock that will be managed by the rule from an expectation
+	 * template, which is recorded the first time it is used and then copied
+	 * for each test. Hold the template in a static field so that it is shared
+	 * by all the tests in the class.
+	 * 
+	 * @param template
+	 *            expectations for an interface mock
+	 * @return new mock with the template's expectations, still in record state
+	 */
+	public <T> T createMock(ExpectationTemplate<T> template) {
+		return track(mocks.createMock(template), template.getName());
 	}
 
 	/**
@@ -236,7 +931,7 @@ public class EasyMockRule implements TestRule {
 	 */
 	@Deprecated
 	public <T> T createMock(Class<T> toMock) {
-		return mocks.createMock(toMock);
+		return track(mocks.createMock(toMock), toMock.getName());
 	}
 
 	/**
@@ -250,7 +945,7 @@ public class EasyMockRule implements TestRule {
 	 */
 	@Deprecated
 	public <T> T createNiceMock(Class<T> toMock) {
-		return mocks.createNiceMock(toMock);
+		return track(mocks.createNiceMock(toMock), toMock.getName());
 	}
 
 	/**
@@ -264,6 +959,6 @@ public class EasyMockRule implements TestRule {
 	 */
 	@Deprecated
 	public <T> T createStrictMock(Class<T> toMock) {
-		return mocks.createStrictMock(toMock);
+		return track(mocks.createStrictMock(toMock), toMock.getName());
 	}
 }
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.easymock.internal.MocksControl.MockType;
+
+/**
+ * JVM wide statistics for EasyMockRule and MockManager, registered with the
+ * platform MBean server as {@value #OBJECT_NAME} the first time they are
+ * used.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+public class EasyMockRuleStatistics implements EasyMockRuleStatisticsMBean {
+
+	public static final String OBJECT_NAME = "com.googlecode.easymockrule:type=EasyMockRuleStatistics";
+
+	private final AtomicLong testsExecuted = new AtomicLong();
+	private final AtomicLong interfaceMocksCreated = new AtomicLong();
+	private final AtomicLong classMocksCreated = new AtomicLong();
+	private final AtomicLong defaultMocksCreated = new AtomicLong();
+	private final AtomicLong niceMocksCreated = new AtomicLong();
+	private final AtomicLong strictMocksCreated = new AtomicLong();
+	private final AtomicLong mockCreationNanos = new AtomicLong();
+	private final AtomicLong verificationNanos = new AtomicLong();
+	private final AtomicLong liveMocks = new AtomicLong();
+
+	private EasyMockRuleStatistics() {
+		// Singleton
+	}
+
+	/**
+	 * @return the statistics for this JVM, registering the MBean on first use
+	 */
+	public static EasyMockRuleStatistics getInstance() {
+		return Holder.INSTANCE;
+	}
+
+	void testExecuted() {
+		testsExecuted.incrementAndGet();
+	}
+
+	void mockCreated(Class<?> toMock, MockType type, long nanos) {
+
+		if (toMock.isInterface()) {
+			interfaceMocksCreated.incrementAndGet();
+		} else {
+			classMocksCreated.incrementAndGet();
+		}
+
+		switch (type) {
+		case NICE:
+			niceMocksCreated.incrementAndGet();
+			break;
+		case STRICT:
+			strictMocksCreated.incrementAndGet();
+			break;
+		default:
+			defaultMocksCreated.incrementAndGet();
+		}
+
+		mockCreationNanos.addAndGet(nanos);
+		liveMocks.incrementAndGet();
+	}
+
+	void mockRegistered() {
+		liveMocks.incrementAndGet();
+	}
+
+	void mocksReleased(int count) {
+		liveMocks.addAndGet(-count);
+	}
+
+	void mocksVerified(long nanos) {
+		verificationNanos.addAndGet(nanos);
+	}
+
+	@Override
+	public long getTestsExecuted() {
+		return testsExecuted.get();
+	}
+
+	@Override
+	public long getInterfaceMocksCreated() {
+		return interfaceMocksCreated.get();
+	}
+
+	@Override
+	public long getClassMocksCreated() {
+		return classMocksCreated.get();
+	}
+
+	@Override
+	public long getDefaultMocksCreated() {
+		return defaultMocksCreated.get();
+	}
+
+	@Override
+	public long getNiceMocksCreated() {
+		return niceMocksCreated.get();
+	}
+
+	@Override
+	public long getStrictMocksCreated() {
+		return strictMocksCreated.get();
+	}
+
+	@Override
+	public long getMockCreationNanos() {
+		return mockCreationNanos.get();
+	}
+
+	@Override
+	public long getVerificationNanos() {
+		return verificationNanos.get();
+	}
+
+	@Override
+	public long getLiveMocks() {
+		return liveMocks.get();
+	}
+
+	/**
+	 * Zero the running totals. The live mock count is left alone, as those
+	 * mocks still exist.
+	 */
+	@Override
+	public void reset() {
+		testsExecuted.set(0);
+		interfaceMocksCreated.set(0);
+		classMocksCreated.set(0);
+		defaultMocksCreated.set(0);
+		niceMocksCreated.set(0);
+		strictMocksCreated.set(0);
+		mockCreationNanos.set(0);
+		verificationNanos.set(0);
+	}
+
+	// Registered when the holder class is first loaded, ie on first use.
+	private static class Holder {
+
+		private static final EasyMockRuleStatistics INSTANCE = register(new EasyMockRuleStatistics());
+
+		private static EasyMockRuleStatistics register(EasyMockRuleStatistics statistics) {
+
+			try {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(statistics, new ObjectName(OBJECT_NAME));
+
+			} catch (JMException e) {
+				// Already registered from another class loader, keep counting
+				// without it
+			}
+
+			return statistics;
+		}
+	}
+}
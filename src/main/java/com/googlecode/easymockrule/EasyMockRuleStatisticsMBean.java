@@ -0,0 +1,45 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+/**
+ * Running totals for EasyMockRule and MockManager in this JVM, as exposed over
+ * JMX. Times are in nanoseconds.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+public interface EasyMockRuleStatisticsMBean {
+
+	long getTestsExecuted();
+
+	long getInterfaceMocksCreated();
+
+	long getClassMocksCreated();
+
+	long getDefaultMocksCreated();
+
+	long getNiceMocksCreated();
+
+	long getStrictMocksCreated();
+
+	long getMockCreationNanos();
+
+	long getVerificationNanos();
+
+	long getLiveMocks();
+
+	void reset();
+}
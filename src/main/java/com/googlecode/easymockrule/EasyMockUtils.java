@@ -15,12 +15,15 @@
  */
 package com.googlecode.easymockrule;
 
-import java.lang.reflect.Field;
+import static net.sf.cglib.proxy.Enhancer.isEnhanced;
+
 import java.lang.reflect.Proxy;
 
+import net.sf.cglib.proxy.Factory;
+
 import org.apache.commons.lang.StringUtils;
+import org.easymock.classextension.internal.ClassProxyFactory.MockMethodInterceptor;
 import org.easymock.internal.MocksControl;
-import org.easymock.internal.MocksControl.MockType;
 import org.easymock.internal.ObjectMethodsFilter;
 
 /**
@@ -35,39 +38,85 @@ public class EasyMockUtils {
 	}
 
 	/**
-	 * Get the control owning the supplied mock. Will blow up if the object
-	 * passed is not a mock.
+	 * Get the control owning the supplied mock, whether it mocks an interface
+	 * or a class.
 	 * 
 	 * @param mock
 	 * @return
+	 * @throws IllegalArgumentException
+	 *             if the object passed is not a mock
 	 */
 	public static MocksControl getMockControl(Object mock) {
 		return getInvocationHandler(mock).getDelegate().getControl();
 	}
 
+	/**
+	 * Get a live view of the supplied mock's name, kind, state and
+	 * expectations. The mock is looked up once, so keep the view to poll it.
+	 * 
+	 * @param mock
+	 * @return
+	 * @throws IllegalArgumentException
+	 *             if the object passed is not a mock
+	 */
+	public static MockDetails getMockDetails(Object mock) {
+		return new MockDetails(mock, getInvocationHandler(mock));
+	}
+
+	// Interface mocks are proxies with the handler, class mocks are enhanced
+	// classes with an interceptor calling it.
 	private static ObjectMethodsFilter getInvocationHandler(Object mock) {
-		return (ObjectMethodsFilter) Proxy.getInvocationHandler(mock);
+
+		Object handler = null;
+
+		if (Proxy.isProxyClass(mock.getClass())) {
+			handler = Proxy.getInvocationHandler(mock);
+
+		} else if (mock instanceof Factory && ((Factory) mock).getCallback(0) instanceof MockMethodInterceptor) {
+			handler = ((MockMethodInterceptor) ((Factory) mock).getCallback(0)).getHandler();
+		}
+
+		if (handler instanceof ObjectMethodsFilter) {
+			return (ObjectMethodsFilter) handler;
+		}
+
+		throw new IllegalArgumentException("Not a mock: " + mock);
 	}
 
 	/**
-	 * Get the mock control "type" field value or empty string on error.
+	 * Get the type that was mocked to create the supplied mock, ie the
+	 * interface for an interface mock, or the class for a class mock.
 	 * 
 	 * @param mock
 	 * @return
 	 */
-	public static String getMockType(Object mock) {
+	public static Class<?> getMockedType(Object mock) {
 
-		try {
-			MocksControl mockControl = getMockControl(mock);
+		Class<?> mockClass = mock.getClass();
+
+		if (Proxy.isProxyClass(mockClass)) {
+			return mockClass.getInterfaces()[0];
+		}
+
+		if (isEnhanced(mockClass)) {
+			return mockClass.getSuperclass();
+		}
 
-			Field mockTypeField = mockControl.getClass().getDeclaredField("type");
-			mockTypeField.setAccessible(true);
+		throw new IllegalArgumentException("Not a mock: " + mock);
+	}
 
-			MockType mockType = (MockType) mockTypeField.get(mockControl);
+	/**
+	 * Get the mock control "type" field value or empty string on error.
+	 * 
+	 * @param mock
+	 * @return
+	 */
+	public static String getMockType(Object mock) {
 
-			return mockType.toString();
+		try {
+			return getMockDetails(mock).getKind();
 
-		} catch (Exception e) {
+		} catch (RuntimeException e) {
 			return StringUtils.EMPTY;
 		}
 	}
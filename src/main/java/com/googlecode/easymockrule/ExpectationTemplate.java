@@ -0,0 +1,394 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.easymock.ArgumentsMatcher;
+import org.easymock.IAnswer;
+import org.easymock.IArgumentMatcher;
+import org.easymock.internal.ExpectedInvocation;
+import org.easymock.internal.ExpectedInvocationAndResult;
+import org.easymock.internal.ExpectedInvocationAndResults;
+import org.easymock.internal.IMocksBehavior;
+import org.easymock.internal.Invocation;
+import org.easymock.internal.MocksBehavior;
+import org.easymock.internal.MocksControl;
+import org.easymock.internal.MocksControl.MockType;
+import org.easymock.internal.Range;
+import org.easymock.internal.Result;
+import org.easymock.internal.Results;
+import org.easymock.internal.UnorderedBehavior;
+import org.easymock.internal.matchers.Captures;
+
+/**
+ * A block of expectations for an interface mock that is recorded once and then
+ * copied into a fresh mock for every test that needs it. Keep the template in a
+ * static field of the test class and implement record() with the expect(...)
+ * calls; the first call to newMock() runs them against a private mock and
+ * keeps the expectations it ends up with, and every call to newMock() returns
+ * a new, independent mock in record state with the same expectations added to
+ * its control, which can be added to before replay. The copies share the
+ * template's arguments, matchers and return values rather than copies of them,
+ * so values a test changes are seen by every mock made from the template.
+ * Captures, and answers or delegates that hold state of their own, would be
+ * shared in the same way and so are rejected when the template is recorded;
+ * add them to each mock after it is created instead.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+public abstract class ExpectationTemplate<T> {
+
+	private static final Field BEHAVIOR = field(MocksControl.class, "behavior");
+
+	private static final Field BEHAVIOR_LISTS = field(MocksBehavior.class, "behaviorLists");
+
+	private static final Field STUB_RESULTS = field(MocksBehavior.class, "stubResults");
+
+	private static final Field CHECK_ORDER = field(MocksBehavior.class, "checkOrder");
+
+	private static final Field EXPECTATIONS = field(UnorderedBehavior.class, "results");
+
+	private static final Field ORDERED = field(UnorderedBehavior.class, "checkOrder");
+
+	private static final Field RESULTS = field(Results.class, "results");
+
+	private static final Field INVOCATION = field(ExpectedInvocation.class, "invocation");
+
+	private static final Field MATCHERS = field(ExpectedInvocation.class, "matchers");
+
+	private static final Field MATCHER = field(ExpectedInvocation.class, "matcher");
+
+	private static final Field ANSWER = field(Result.class, "value");
+
+	private static final Class<?> RETURNING = answerClass(Result.createReturnResult(null));
+
+	private static final Class<?> THROWING = answerClass(Result.createThrowResult(new RuntimeException()));
+
+	private final String name;
+
+	private final Class<T> toMock;
+
+	private final MockType mockType;
+
+	private final Lock lock = new ReentrantLock();
+
+	private Recording recording;
+
+	/**
+	 * Template for a default mock.
+	 * 
+	 * @param name
+	 *            Name for the mocks created from the template
+	 * @param toMock
+	 *            Interface to mock
+	 */
+	protected ExpectationTemplate(String name, Class<T> toMock) {
+		this(name, toMock, MockType.DEFAULT);
+	}
+
+	/**
+	 * Template for a default, nice or strict mock.
+	 * 
+	 * @param name
+	 *            Name for the mocks created from the template
+	 * @param toMock
+	 *            Interface to mock
+	 * @param mockType
+	 *            Type of the mocks created from the template
+	 */
+	protected ExpectationTemplate(String name, Class<T> toMock, MockType mockType) {
+
+		if (!toMock.isInterface()) {
+			throw new IllegalArgumentException("Expectation templates only support interface mocks, not "
+					+ toMock.getName());
+		}
+
+		this.name = name.replaceAll("\\.", "_");
+		this.toMock = toMock;
+		this.mockType = mockType;
+	}
+
+	private static Field field(Class<?> type, String name) {
+
+		try {
+			Field f = type.getDeclaredField(name);
+			f.setAccessible(true);
+			return f;
+
+		} catch (NoSuchFieldException e) {
+			throw new IllegalStateException("Unsupported EasyMock version", e);
+		}
+	}
+
+	private static Class<?> answerClass(Result result) {
+
+		try {
+			return ANSWER.get(result).getClass();
+
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException("Unsupported EasyMock version", e);
+		}
+	}
+
+	/**
+	 * Record the template's expectations on the given mock.
+	 * 
+	 * @param mock
+	 * @throws Exception
+	 */
+	protected abstract void record(T mock) throws Exception;
+
+	/**
+	 * @return the name given to mocks created from this template
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the interface mocked by this template
+	 */
+	public Class<T> getMockedType() {
+		return toMock;
+	}
+
+	/**
+	 * @return the type of the mocks created from this template
+	 */
+	public MockType getMockType() {
+		return mockType;
+	}
+
+	/**
+	 * Create a new mock, in record state, with the template's expectations.
+	 * 
+	 * @return
+	 */
+	public T newMock() {
+
+		try {
+			Recording expectations = getRecording();
+
+			MocksControl control = new ClassMockControl(mockType);
+			T mock = control.createMock(name, toMock);
+			expectations.addTo(mock, (IMocksBehavior) BEHAVIOR.get(control));
+
+			return mock;
+
+		} catch (Exception e) {
+			throw new IllegalStateException("Can't create a mock from template " + name, e);
+		}
+	}
+
+	private Recording getRecording() throws Exception {
+
+		lock.lock();
+		try {
+			if (recording == null) {
+				recording = record();
+			}
+
+			return recording;
+
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private Recording record() throws Exception {
+
+		MocksControl control = new MocksControl(mockType);
+		T mock = control.createMock(name, toMock);
+		record(mock);
+
+		// The last expectation only reaches the behavior when recording ends
+		control.replay();
+
+		return new Recording((MocksBehavior) BEHAVIOR.get(control));
+	}
+
+	/**
+	 * The expectations and stubs recorded on a template's mock, in the order
+	 * its behavior holds them, ready to be added to another mock's behavior.
+	 */
+	private static class Recording {
+
+		private final List<Expectation> expectations = new ArrayList<Expectation>();
+
+		private final List<Expectation> stubs = new ArrayList<Expectation>();
+
+		private final boolean checkOrder;
+
+		private final boolean threadSafe;
+
+		@SuppressWarnings("unchecked")
+		Recording(MocksBehavior behavior) throws IllegalAccessException {
+
+			for (UnorderedBehavior unordered : (List<UnorderedBehavior>) BEHAVIOR_LISTS.get(behavior)) {
+
+				boolean ordered = ORDERED.getBoolean(unordered);
+
+				for (ExpectedInvocationAndResults expected : (List<ExpectedInvocationAndResults>) EXPECTATIONS
+						.get(unordered)) {
+
+					List<Result> results = (List<Result>) RESULTS.get(expected.getResults());
+					List<Range> ranges = WatchedBehavior.ranges(expected.getResults());
+
+					for (int i = 0; i < results.size(); i++) {
+						expectations.add(new Expectation(expected.getExpectedInvocation(), results.get(i), ranges
+								.get(i), ordered));
+					}
+				}
+			}
+
+			for (ExpectedInvocationAndResult stub : (List<ExpectedInvocationAndResult>) STUB_RESULTS.get(behavior)) {
+				stubs.add(new Expectation(stub.getExpectedInvocation(), stub.getResult(), null, false));
+			}
+
+			this.checkOrder = CHECK_ORDER.getBoolean(behavior);
+			this.threadSafe = behavior.isThreadSafe();
+		}
+
+		// Adding them in the same order, with the same ordering, rebuilds the
+		// same ordered and unordered blocks.
+		void addTo(Object mock, IMocksBehavior behavior) throws IllegalAccessException {
+
+			for (Expectation expectation : expectations) {
+				behavior.checkOrder(expectation.ordered);
+				behavior.addExpected(expectation.forMock(mock), expectation.result, expectation.range);
+			}
+
+			for (Expectation stub : stubs) {
+				behavior.addStub(stub.forMock(mock), stub.result);
+			}
+
+			behavior.checkOrder(checkOrder);
+			behavior.makeThreadSafe(threadSafe);
+		}
+	}
+
+	/**
+	 * One expected call and one of its results.
+	 */
+	private static class Expectation {
+
+		private final Method method;
+
+		private final Object[] arguments;
+
+		private final List<IArgumentMatcher> matchers;
+
+		private final ArgumentsMatcher matcher;
+
+		private final Result result;
+
+		private final Range range;
+
+		private final boolean ordered;
+
+		@SuppressWarnings("unchecked")
+		Expectation(ExpectedInvocation expected, Result result, Range range, boolean ordered)
+				throws IllegalAccessException {
+
+			Invocation invocation = (Invocation) INVOCATION.get(expected);
+
+			this.method = invocation.getMethod();
+			this.arguments = collapseVarArgs(method, invocation.getArguments());
+			this.matchers = (List<IArgumentMatcher>) MATCHERS.get(expected);
+			this.matcher = (ArgumentsMatcher) MATCHER.get(expected);
+			this.result = result;
+			this.range = range;
+			this.ordered = ordered;
+
+			checkShareable(expected, result);
+		}
+
+		// Every mock made from the template shares its matchers and answers, so
+		// a capture or an answer with fields would leak from test to test.
+		private void checkShareable(ExpectedInvocation expected, Result result) throws IllegalAccessException {
+
+			if (matchers != null) {
+				for (IArgumentMatcher argumentMatcher : matchers) {
+					if (argumentMatcher instanceof Captures) {
+						throw new IllegalStateException("Can't share the capture in " + expected
+								+ " between mocks; capture on each mock after creating it from the template");
+					}
+				}
+			}
+
+			IAnswer<?> answer = (IAnswer<?>) ANSWER.get(result);
+
+			if (answer.getClass() != RETURNING && answer.getClass() != THROWING && hasState(answer.getClass())) {
+				throw new IllegalStateException("Can't share the answer " + answer.getClass().getName() + " to "
+						+ expected + " between mocks, as it has fields; add it to each mock after creating it"
+						+ " from the template");
+			}
+		}
+
+		private static boolean hasState(Class<?> type) {
+
+			for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+				for (Field f : c.getDeclaredFields()) {
+					if (!Modifier.isStatic(f.getModifiers())) {
+						return true;
+					}
+				}
+			}
+
+			return false;
+		}
+
+		// The same call, made on the given mock.
+		ExpectedInvocation forMock(Object mock) {
+
+			ExpectedInvocation expected = new ExpectedInvocation(new Invocation(mock, method, arguments.clone()),
+					matchers);
+
+			return matcher == null ? expected : expected.withMatcher(matcher);
+		}
+
+		// An Invocation holds varargs spread out, and spreads them again when
+		// created, so they are put back into their array to create a copy.
+		private static Object[] collapseVarArgs(Method method, Object[] spread) {
+
+			if (!method.isVarArgs()) {
+				return spread;
+			}
+
+			int fixed = method.getParameterTypes().length - 1;
+			Object varArgs = Array.newInstance(method.getParameterTypes()[fixed].getComponentType(), spread.length
+					- fixed);
+
+			for (int i = 0; i < spread.length - fixed; i++) {
+				Array.set(varArgs, i, spread[fixed + i]);
+			}
+
+			Object[] collapsed = new Object[fixed + 1];
+			System.arraycopy(spread, 0, collapsed, 0, fixed);
+			collapsed[fixed] = varArgs;
+
+			return collapsed;
+		}
+	}
+}
@@ -15,9 +15,8 @@
  */
 package com.googlecode.easymockrule;
 
-import static net.sf.cglib.proxy.Enhancer.isEnhanced;
-
 import org.easymock.EasyMockSupport;
+import org.easymock.IMocksControl;
 import org.easymock.internal.MocksControl;
 
 /**
@@ -36,6 +35,29 @@ public class ExternalMockSupport extends EasyMockSupport {
 		controls.add(getMockControl(mock));
 	}
 
+	/**
+	 * Register a control to be managed by this instance for verifyAll etc,
+	 * along with every mock it has created or will create.
+	 * 
+	 * @param control
+	 */
+	public void registerControl(IMocksControl control) {
+		controls.add(control);
+	}
+
+	/**
+	 * Remove a control from the list being managed, however many times it was
+	 * registered.
+	 * 
+	 * @param control
+	 */
+	public void deregisterControl(IMocksControl control) {
+
+		while (controls.remove(control)) {
+			// Registered once for each of its mocks
+		}
+	}
+
 	/**
 	 * Remove a mock from the list being managed.
 	 * 
@@ -46,20 +68,14 @@ public class ExternalMockSupport extends EasyMockSupport {
 	}
 
 	/**
-	 * Get the IMocksControl instance that owns the supplied mock. Throws
-	 * exception if the supplied object is not in fact a mock.
+	 * Get the IMocksControl instance that owns the supplied mock, whether it
+	 * mocks an interface or a class. Throws exception if the supplied object is
+	 * not in fact a mock.
 	 * 
 	 * @param mock
 	 * @return
 	 */
 	public MocksControl getMockControl(Object mock) {
-
-		if (isEnhanced(mock.getClass())) {
-			// TODO [atodd] Work out how to get the control for a CGLib class
-			// proxy
-			throw new IllegalArgumentException("Can't register a class mock. Only supports registering interface mocks");
-		}
-
 		return EasyMockUtils.getMockControl(mock);
 	}
 
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.googlecode.easymockrule.TestCosts.ClassCost;
+
+/**
+ * Splits test classes between forks by the costs in a TestCosts file, so that
+ * each fork takes about the same time. Classes that mock the same types are
+ * kept in the same fork, where the mocked classes and metadata cached for one
+ * are reused by the others, unless together they would take more than a
+ * fork's share. Groups are then handed out biggest first, each to the fork
+ * with least to do so far.
+ * <p>
+ * Run from the command line with the costs file and the number of forks, it
+ * prints a line of comma separated class names for each fork, to pass to
+ * Surefire's "test" property:
+ * 
+ * <pre>
+ * java com.googlecode.easymockrule.ForkBalancer target/test-costs.tsv 4
+ * </pre>
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+public class ForkBalancer {
+
+	private ForkBalancer() {
+		// Hide utility class constructor
+	}
+
+	public static void main(String[] args) throws IOException {
+
+		if (args.length != 2) {
+			System.err.println("Usage: ForkBalancer <costs file> <forks>");
+			System.exit(1);
+		}
+
+		for (List<String> fork : balance(TestCosts.read(new File(args[0])), Integer.parseInt(args[1]))) {
+
+			StringBuilder line = new StringBuilder();
+
+			for (String className : fork) {
+				line.append(line.length() == 0 ? "" : ",").append(className);
+			}
+
+			System.out.println(line);
+		}
+	}
+
+	/**
+	 * Split the classes between the given number of forks.
+	 * 
+	 * @param costs
+	 *            by class name
+	 * @param forks
+	 * @return the class names for each fork, sorted, with empty lists for
+	 *         forks left without any
+	 */
+	public static List<List<String>> balance(Map<String, ClassCost> costs, int forks) {
+
+		if (forks < 1) {
+			throw new IllegalArgumentException("Need at least one fork, not " + forks);
+		}
+
+		long total = 0;
+
+		for (ClassCost cost : costs.values()) {
+			total += cost.getTestNanos();
+		}
+
+		List<Group> units = new ArrayList<Group>();
+
+		for (Group group : groupBySharedTypes(costs)) {
+			if (group.nanos * forks > total && group.classes.size() > 1) {
+				for (String className : group.classes) {
+					units.add(new Group(className, costs.get(className).getTestNanos()));
+				}
+			} else {
+				units.add(group);
+			}
+		}
+
+		// Biggest first, then by name so that the same costs give the same forks
+		Collections.sort(units, new Comparator<Group>() {
+			@Override
+			public int compare(Group a, Group b) {
+				return a.nanos != b.nanos ? (a.nanos > b.nanos ? -1 : 1) : a.classes.get(0).compareTo(
+						b.classes.get(0));
+			}
+		});
+
+		List<List<String>> assigned = new ArrayList<List<String>>();
+		long[] loads = new long[forks];
+
+		for (int i = 0; i < forks; i++) {
+			assigned.add(new ArrayList<String>());
+		}
+
+		for (Group unit : units) {
+
+			int lightest = 0;
+
+			for (int i = 1; i < forks; i++) {
+				if (loads[i] < loads[lightest]) {
+					lightest = i;
+				}
+			}
+
+			assigned.get(lightest).addAll(unit.classes);
+			loads[lightest] += unit.nanos;
+		}
+
+		for (List<String> fork : assigned) {
+			Collections.sort(fork);
+		}
+
+		return assigned;
+	}
+
+	// Classes are joined, through the types they mock, into groups that share
+	// no mocked type with each other.
+	private static List<Group> groupBySharedTypes(Map<String, ClassCost> costs) {
+
+		Map<String, String> parents = new HashMap<String, String>();
+
+		for (ClassCost cost : costs.values()) {
+
+			parents.put(cost.getClassName(), cost.getClassName());
+
+			for (String type : cost.getMockedTypes()) {
+
+				String typeKey = "type:" + type;
+
+				if (!parents.containsKey(typeKey)) {
+					parents.put(typeKey, typeKey);
+				}
+
+				parents.put(root(parents, typeKey), root(parents, cost.getClassName()));
+			}
+		}
+
+		Map<String, Group> groups = new TreeMap<String, Group>();
+
+		for (ClassCost cost : costs.values()) {
+
+			String root = root(parents, cost.getClassName());
+			Group group = groups.get(root);
+
+			if (group == null) {
+				group = new Group();
+				groups.put(root, group);
+			}
+
+			group.classes.add(cost.getClassName());
+			group.nanos += cost.getTestNanos();
+		}
+
+		return new ArrayList<Group>(groups.values());
+	}
+
+	private static String root(Map<String, String> parents, String key) {
+
+		String root = key;
+
+		while (!parents.get(root).equals(root)) {
+			root = parents.get(root);
+		}
+
+		// Point the path straight at the root, to keep later lookups short
+		while (!key.equals(root)) {
+			String next = parents.get(key);
+			parents.put(key, root);
+			key = next;
+		}
+
+		return root;
+	}
+
+	private static class Group {
+
+		private final List<String> classes = new ArrayList<String>();
+
+		private long nanos;
+
+		Group() {
+		}
+
+		Group(String className, long nanos) {
+			classes.add(className);
+			this.nanos = nanos;
+		}
+	}
+}
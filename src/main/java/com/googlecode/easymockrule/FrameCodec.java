@@ -0,0 +1,42 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Turns the frames a LoopbackServer receives into calls on the service it
+ * stands in for, typically a mock, and the results back into frames.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+public interface FrameCodec<T> {
+
+	/**
+	 * Decode a request, make the call it describes on the service, and encode
+	 * the answer. Called on the server's thread, one frame at a time.
+	 * 
+	 * @param request
+	 *            the request frame's payload, only valid during the call
+	 * @param service
+	 *            the service to call
+	 * @return a buffer whose remaining bytes are the answer's payload, or null
+	 *         to send no answer
+	 * @throws Exception
+	 *             to fail the test and drop the connection
+	 */
+	ByteBuffer answer(ByteBuffer request, T service) throws Exception;
+}
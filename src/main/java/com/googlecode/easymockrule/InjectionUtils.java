@@ -15,7 +15,14 @@
  */
 package com.googlecode.easymockrule;
 
+import java.lang.reflect.Array;
 import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.lang.reflect.WildcardType;
 import java.util.List;
 
 /**
@@ -54,6 +61,195 @@ public class InjectionUtils {
 		}
 	}
 
+	/**
+	 * Inject candidate into a field of target that is still null, by name and
+	 * then by type, so that nothing already set, eg by a constructor, is
+	 * overwritten.
+	 * 
+	 * @param target
+	 * @param candidate
+	 * @param fieldName
+	 * @return true if the candidate was injected
+	 * @throws IllegalAccessException
+	 */
+	public static boolean injectIntoEmpty(Object target, Object candidate, String fieldName)
+			throws IllegalAccessException {
+		return injectIntoEmpty(target, candidate, fieldName, null);
+	}
+
+	/**
+	 * Inject a batch of mocks, the value of the List, Map or array field
+	 * batchField, into the first of targets with an empty field that can hold
+	 * it, by name and then by type. Fields are matched on their declared
+	 * generic types, not on the runtime class of the batch, so that eg a
+	 * List&lt;Catalogue&gt; batch never replaces a List&lt;String&gt;.
+	 * 
+	 * @param targets
+	 * @param batch
+	 * @param batchField
+	 * @return true if the batch was injected
+	 * @throws IllegalAccessException
+	 */
+	public static boolean injectBatch(List<Object> targets, Object batch, Field batchField)
+			throws IllegalAccessException {
+
+		for (Object target : targets) {
+			if (injectIntoEmpty(target, batch, batchField.getName(), batchField)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Inject a batch of mocks into an empty field of target, as
+	 * {@link #injectBatch(List, Object, Field)} does.
+	 * 
+	 * @param target
+	 * @param batch
+	 * @param batchField
+	 * @return true if the batch was injected
+	 * @throws IllegalAccessException
+	 */
+	public static boolean injectBatchIntoEmpty(Object target, Object batch, Field batchField)
+			throws IllegalAccessException {
+		return injectIntoEmpty(target, batch, batchField.getName(), batchField);
+	}
+
+	// A candidate declared by a field is matched on that field's generic type.
+	private static boolean injectIntoEmpty(Object target, Object candidate, String fieldName, Field declaredBy)
+			throws IllegalAccessException {
+
+		Field byType = null;
+
+		for (Class<?> c = target.getClass(); isUserDefined(c); c = c.getSuperclass()) {
+			for (Field f : c.getDeclaredFields()) {
+
+				if ((f.getModifiers() & (Modifier.STATIC | Modifier.FINAL)) != 0 || !f.getType().isInstance(candidate)
+						|| (declaredBy != null && !isAssignable(f.getGenericType(), declaredBy))) {
+					continue;
+				}
+
+				f.setAccessible(true);
+
+				if (f.get(target) != null) {
+					continue;
+				}
+
+				if (f.getName().equals(fieldName)) {
+					f.set(target, candidate);
+					return true;
+				}
+
+				if (byType == null) {
+					byType = f;
+				}
+			}
+		}
+
+		if (byType != null) {
+			byType.set(target, candidate);
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Could the value of source be assigned to a field or parameter of the
+	 * given generic type? The raw types must be assignable and, where both are
+	 * parameterized alike, so must their type arguments, so that eg a
+	 * List&lt;Catalogue&gt; can't be passed as a List&lt;String&gt;.
+	 * 
+	 * @param target
+	 *            generic type of the field or parameter
+	 * @param source
+	 *            field whose value would be assigned
+	 * @return
+	 */
+	public static boolean isAssignable(Type target, Field source) {
+
+		if (!rawType(target).isAssignableFrom(source.getType())) {
+			return false;
+		}
+
+		if (!(target instanceof ParameterizedType) || !(source.getGenericType() instanceof ParameterizedType)) {
+			return true;
+		}
+
+		Type[] targetArguments = ((ParameterizedType) target).getActualTypeArguments();
+		Type[] sourceArguments = ((ParameterizedType) source.getGenericType()).getActualTypeArguments();
+
+		// Eg a subclass that binds some of its superclass's arguments, which
+		// can't be compared without resolving its type hierarchy.
+		if (targetArguments.length != sourceArguments.length) {
+			return true;
+		}
+
+		for (int i = 0; i < targetArguments.length; i++) {
+			if (!containsArgument(targetArguments[i], sourceArguments[i])) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	// Type arguments must be equal unless the target's is a wildcard or a type
+	// variable that can't be resolved here.
+	private static boolean containsArgument(Type target, Type source) {
+
+		if (target.equals(source) || target instanceof TypeVariable) {
+			return true;
+		}
+
+		if (!(target instanceof WildcardType)) {
+			return false;
+		}
+
+		WildcardType wildcard = (WildcardType) target;
+
+		for (Type upper : wildcard.getUpperBounds()) {
+			if (!rawType(upper).isAssignableFrom(rawType(source))) {
+				return false;
+			}
+		}
+
+		for (Type lower : wildcard.getLowerBounds()) {
+			if (!rawType(source).isAssignableFrom(rawType(lower))) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private static Class<?> rawType(Type type) {
+
+		if (type instanceof Class) {
+			return (Class<?>) type;
+		}
+
+		if (type instanceof ParameterizedType) {
+			return rawType(((ParameterizedType) type).getRawType());
+		}
+
+		if (type instanceof GenericArrayType) {
+			return Array.newInstance(rawType(((GenericArrayType) type).getGenericComponentType()), 0).getClass();
+		}
+
+		if (type instanceof WildcardType) {
+			return rawType(((WildcardType) type).getUpperBounds()[0]);
+		}
+
+		if (type instanceof TypeVariable) {
+			return rawType(((TypeVariable<?>) type).getBounds()[0]);
+		}
+
+		return Object.class;
+	}
+
 	/**
 	 * Inject candidate into target where target has a field matching the
 	 * fieldName.
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+/**
+ * The binary format shared by InteractionRecorder and InteractionReplayer. A
+ * file starts with a magic number, followed by records of two kinds: a method
+ * record assigning a short id to a method signature the first time that method
+ * is called, and a call record giving the method id, the arguments, whether
+ * the call returned or threw, and the value returned or thrown. Primitives,
+ * their wrappers and Strings are written directly, anything else must be
+ * Serializable.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+public class InteractionFormat {
+
+	static final int MAGIC = 0x454d5231;
+
+	static final byte METHOD = 1;
+	static final byte CALL = 2;
+
+	static final byte RETURNED = 0;
+	static final byte THREW = 1;
+
+	private static final byte NULL = 0;
+	private static final byte BOOLEAN = 1;
+	private static final byte BYTE = 2;
+	private static final byte CHAR = 3;
+	private static final byte SHORT = 4;
+	private static final byte INT = 5;
+	private static final byte LONG = 6;
+	private static final byte FLOAT = 7;
+	private static final byte DOUBLE = 8;
+	private static final byte STRING = 9;
+	private static final byte SERIALIZED = 10;
+
+	private static final String UTF_8 = "UTF-8";
+
+	private InteractionFormat() {
+		// Hide utility class constructor
+	}
+
+	/**
+	 * Signature identifying a method in a recording, eg
+	 * "lookup(java.lang.String,int)".
+	 * 
+	 * @param method
+	 * @return
+	 */
+	public static String signature(Method method) {
+
+		StringBuilder signature = new StringBuilder(method.getName()).append('(');
+		Class<?>[] parameterTypes = method.getParameterTypes();
+
+		for (int i = 0; i < parameterTypes.length; i++) {
+			if (i > 0) {
+				signature.append(',');
+			}
+			signature.append(parameterTypes[i].getName());
+		}
+
+		return signature.append(')').toString();
+	}
+
+	static void writeString(DataOutput out, String value) throws IOException {
+
+		byte[] bytes = value.getBytes(UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	static String readString(ByteBuffer in) throws IOException {
+
+		byte[] bytes = new byte[in.getInt()];
+		in.get(bytes);
+
+		return new String(bytes, UTF_8);
+	}
+
+	static void writeValue(DataOutput out, Object value) throws IOException {
+
+		if (value == null) {
+			out.writeByte(NULL);
+
+		} else if (value instanceof Boolean) {
+			out.writeByte(BOOLEAN);
+			out.writeBoolean((Boolean) value);
+
+		} else if (value instanceof Byte) {
+			out.writeByte(BYTE);
+			out.writeByte((Byte) value);
+
+		} else if (value instanceof Character) {
+			out.writeByte(CHAR);
+			out.writeChar((Character) value);
+
+		} else if (value instanceof Short) {
+			out.writeByte(SHORT);
+			out.writeShort((Short) value);
+
+		} else if (value instanceof Integer) {
+			out.writeByte(INT);
+			out.writeInt((Integer) value);
+
+		} else if (value instanceof Long) {
+			out.writeByte(LONG);
+			out.writeLong((Long) value);
+
+		} else if (value instanceof Float) {
+			out.writeByte(FLOAT);
+			out.writeFloat((Float) value);
+
+		} else if (value instanceof Double) {
+			out.writeByte(DOUBLE);
+			out.writeDouble((Double) value);
+
+		} else if (value instanceof String) {
+			out.writeByte(STRING);
+			writeString(out, (String) value);
+
+		} else if (value instanceof Serializable) {
+			byte[] bytes = serialize(value);
+			out.writeByte(SERIALIZED);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+
+		} else {
+			throw new IllegalArgumentException("Can't record a " + value.getClass().getName()
+					+ ", only primitives, Strings and Serializable values can be recorded");
+		}
+	}
+
+	static Object readValue(ByteBuffer in) throws IOException {
+
+		byte type = in.get();
+
+		switch (type) {
+		case NULL:
+			return null;
+		case BOOLEAN:
+			return in.get() != 0;
+		case BYTE:
+			return in.get();
+		case CHAR:
+			return in.getChar();
+		case SHORT:
+			return in.getShort();
+		case INT:
+			return in.getInt();
+		case LONG:
+			return in.getLong();
+		case FLOAT:
+			return in.getFloat();
+		case DOUBLE:
+			return in.getDouble();
+		case STRING:
+			return readString(in);
+		case SERIALIZED:
+			byte[] bytes = new byte[in.getInt()];
+			in.get(bytes);
+			return deserialize(bytes);
+		default:
+			throw new IOException("Unknown value type " + type + " at position " + (in.position() - 1));
+		}
+	}
+
+	static void skipValue(ByteBuffer in) throws IOException {
+
+		byte type = in.get();
+
+		switch (type) {
+		case NULL:
+			return;
+		case BOOLEAN:
+		case BYTE:
+			skip(in, 1);
+			return;
+		case CHAR:
+		case SHORT:
+			skip(in, 2);
+			return;
+		case INT:
+		case FLOAT:
+			skip(in, 4);
+			return;
+		case LONG:
+		case DOUBLE:
+			skip(in, 8);
+			return;
+		case STRING:
+		case SERIALIZED:
+			skip(in, in.getInt());
+			return;
+		default:
+			throw new IOException("Unknown value type " + type + " at position " + (in.position() - 1));
+		}
+	}
+
+	private static void skip(ByteBuffer in, int length) {
+		in.position(in.position() + length);
+	}
+
+	private static byte[] serialize(Object value) throws IOException {
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(value);
+		out.close();
+
+		return bytes.toByteArray();
+	}
+
+	private static Object deserialize(byte[] bytes) throws IOException {
+
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+
+		try {
+			return in.readObject();
+
+		} catch (ClassNotFoundException e) {
+			throw new IOException("Can't load class of recorded value: " + e.getMessage());
+
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import static com.googlecode.easymockrule.InteractionFormat.CALL;
+import static com.googlecode.easymockrule.InteractionFormat.MAGIC;
+import static com.googlecode.easymockrule.InteractionFormat.METHOD;
+import static com.googlecode.easymockrule.InteractionFormat.RETURNED;
+import static com.googlecode.easymockrule.InteractionFormat.THREW;
+import static com.googlecode.easymockrule.InteractionFormat.signature;
+import static com.googlecode.easymockrule.InteractionFormat.writeString;
+import static com.googlecode.easymockrule.InteractionFormat.writeValue;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Wraps a real implementation of an interface, passing every call through to
+ * it and logging the method, arguments and outcome to a file in
+ * InteractionFormat, so that the same interactions can later be replayed as
+ * expectations by InteractionReplayer. Calls are recorded one at a time, under
+ * a Lock rather than synchronized, as the delegate may block, and a virtual
+ * thread blocking inside synchronized pins its carrier thread.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+public class InteractionRecorder<T> implements InvocationHandler, Closeable {
+
+	private final Lock lock = new ReentrantLock();
+
+	private final T delegate;
+
+	private final T proxy;
+
+	private final DataOutputStream out;
+
+	private final Map<Method, Short> methodIds = new HashMap<Method, Short>();
+
+	/**
+	 * Start recording calls made through getProxy() to the given delegate.
+	 * 
+	 * @param type
+	 *            interface to record
+	 * @param delegate
+	 *            real implementation that will answer the calls
+	 * @param file
+	 *            file to record to, which will be overwritten
+	 * @throws IOException
+	 */
+	public InteractionRecorder(Class<T> type, T delegate, File file) throws IOException {
+
+		if (!type.isInterface()) {
+			throw new IllegalArgumentException("Can only record interactions with an interface, not " + type.getName());
+		}
+
+		this.delegate = delegate;
+		this.proxy = type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, this));
+		this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+
+		out.writeInt(MAGIC);
+	}
+
+	/**
+	 * @return the recording wrapper to hand to the code being recorded
+	 */
+	public T getProxy() {
+		return proxy;
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+
+		lock.lock();
+		try {
+			if (method.getDeclaringClass() == Object.class) {
+				return invokeDelegate(method, args);
+			}
+
+			short methodId = methodId(method);
+
+			out.writeByte(CALL);
+			out.writeShort(methodId);
+
+			if (args != null) {
+				for (Object arg : args) {
+					writeValue(out, arg);
+				}
+			}
+
+			Object result;
+
+			try {
+				result = invokeDelegate(method, args);
+
+			} catch (Throwable t) {
+				out.writeByte(THREW);
+				writeValue(out, t);
+				throw t;
+			}
+
+			out.writeByte(RETURNED);
+			writeValue(out, result);
+
+			return result;
+
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private Object invokeDelegate(Method method, Object[] args) throws Throwable {
+
+		try {
+			return method.invoke(delegate, args);
+
+		} catch (InvocationTargetException e) {
+			throw e.getTargetException();
+		}
+	}
+
+	// Method records are written into the stream the first time each method is
+	// called, so the recording never needs to be rewritten.
+	private short methodId(Method method) throws IOException {
+
+		Short id = methodIds.get(method);
+
+		if (id == null) {
+			id = (short) methodIds.size();
+			methodIds.put(method, id);
+
+			out.writeByte(METHOD);
+			out.writeShort(id);
+			writeString(out, signature(method));
+		}
+
+		return id;
+	}
+
+	/**
+	 * Flush and close the recording.
+	 */
+	@Override
+	public void close() throws IOException {
+
+		lock.lock();
+		try {
+			out.close();
+		} finally {
+			lock.unlock();
+		}
+	}
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import static com.googlecode.easymockrule.InteractionFormat.CALL;
+import static com.googlecode.easymockrule.InteractionFormat.MAGIC;
+import static com.googlecode.easymockrule.InteractionFormat.METHOD;
+import static com.googlecode.easymockrule.InteractionFormat.THREW;
+import static com.googlecode.easymockrule.InteractionFormat.readString;
+import static com.googlecode.easymockrule.InteractionFormat.readValue;
+import static com.googlecode.easymockrule.InteractionFormat.signature;
+import static com.googlecode.easymockrule.InteractionFormat.skipValue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+
+/**
+ * Turns a recording made by InteractionRecorder into expectations on a mock
+ * that is still in record state. The file is memory mapped rather than read
+ * into the heap, and rather than one expectation per recorded call, each run
+ * of consecutive calls to the same method gets a single expectation for the
+ * number of calls in the run, answered by reading the next call from the
+ * mapped file. The expectations follow the order of the recording, so a
+ * strict mock checks it too. The recorded calls must then arrive in the order
+ * they were recorded, with equal arguments, and each is answered with the
+ * recorded return value or exception.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+public class InteractionReplayer {
+
+	private final ByteBuffer recording;
+
+	private final List<Method> methods = new ArrayList<Method>();
+
+	private final List<Method> runMethods = new ArrayList<Method>();
+
+	private final List<Integer> runLengths = new ArrayList<Integer>();
+
+	/**
+	 * Map the given recording, resolving its methods against the mocked type.
+	 * 
+	 * @param mockedType
+	 *            type of the mock that the recording will be replayed on
+	 * @param file
+	 *            recording made by InteractionRecorder
+	 * @throws IOException
+	 */
+	public InteractionReplayer(Class<?> mockedType, File file) throws IOException {
+
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+
+		try {
+			recording = in.getChannel().map(MapMode.READ_ONLY, 0, in.length());
+		} finally {
+			in.close();
+		}
+
+		if (recording.getInt() != MAGIC) {
+			throw new IOException(file + " is not an interaction recording");
+		}
+
+		scan(mockedType);
+	}
+
+	// Count the calls in each run of calls to one method without decoding any
+	// of the values, then rewind ready for the answers to read the calls as
+	// they happen.
+	private void scan(Class<?> mockedType) throws IOException {
+
+		Map<String, Method> methodsBySignature = new HashMap<String, Method>();
+		for (Method method : mockedType.getMethods()) {
+			methodsBySignature.put(signature(method), method);
+		}
+
+		while (recording.hasRemaining()) {
+
+			byte record = recording.get();
+
+			if (record == METHOD) {
+				recording.getShort();
+				String signature = readString(recording);
+				Method method = methodsBySignature.get(signature);
+
+				if (method == null) {
+					throw new IOException(mockedType.getName() + " has no method " + signature);
+				}
+
+				methods.add(method);
+
+			} else if (record == CALL) {
+				Method method = methods.get(recording.getShort());
+				int last = runMethods.size() - 1;
+
+				if (last >= 0 && runMethods.get(last).equals(method)) {
+					runLengths.set(last, runLengths.get(last) + 1);
+				} else {
+					runMethods.add(method);
+					runLengths.add(1);
+				}
+
+				for (int i = 0; i < method.getParameterTypes().length; i++) {
+					skipValue(recording);
+				}
+				recording.get();
+				skipValue(recording);
+
+			} else {
+				throw new IOException("Unknown record type " + record + " at position " + (recording.position() - 1));
+			}
+		}
+
+		recording.position(4);
+	}
+
+	/**
+	 * Expect the recorded calls on the given mock, which must be in record
+	 * state.
+	 * 
+	 * @param mock
+	 * @throws Exception
+	 */
+	public void expectOn(Object mock) throws Exception {
+
+		for (int i = 0; i < runMethods.size(); i++) {
+
+			Method method = runMethods.get(i);
+
+			try {
+				method.invoke(mock, anyArguments(method));
+			} catch (InvocationTargetException e) {
+				throw rethrowable(e.getTargetException());
+			}
+
+			EasyMock.expectLastCall().andAnswer(new RecordedAnswer(method)).times(runLengths.get(i));
+		}
+	}
+
+	private Exception rethrowable(Throwable t) {
+
+		if (t instanceof Error) {
+			throw (Error) t;
+		}
+
+		return (Exception) t;
+	}
+
+	private Object[] anyArguments(Method method) {
+
+		Class<?>[] parameterTypes = method.getParameterTypes();
+		Object[] arguments = new Object[parameterTypes.length];
+
+		for (int i = 0; i < parameterTypes.length; i++) {
+			arguments[i] = any(parameterTypes[i]);
+		}
+
+		return arguments;
+	}
+
+	private Object any(Class<?> type) {
+
+		if (type == boolean.class) {
+			return EasyMock.anyBoolean();
+		} else if (type == byte.class) {
+			return EasyMock.anyByte();
+		} else if (type == char.class) {
+			return EasyMock.anyChar();
+		} else if (type == short.class) {
+			return EasyMock.anyShort();
+		} else if (type == int.class) {
+			return EasyMock.anyInt();
+		} else if (type == long.class) {
+			return EasyMock.anyLong();
+		} else if (type == float.class) {
+			return EasyMock.anyFloat();
+		} else if (type == double.class) {
+			return EasyMock.anyDouble();
+		}
+
+		return EasyMock.anyObject();
+	}
+
+	// Read the next call, skipping the method records we have already seen.
+	private Object answer(Method method, Object[] arguments) throws Throwable {
+
+		if (!recording.hasRemaining()) {
+			throw new AssertionError("Unexpected call " + signature(method) + " after the end of the recording");
+		}
+
+		while (recording.get() == METHOD) {
+			recording.getShort();
+			readString(recording);
+		}
+
+		Method recordedMethod = methods.get(recording.getShort());
+
+		Object[] recordedArguments = new Object[recordedMethod.getParameterTypes().length];
+		for (int i = 0; i < recordedArguments.length; i++) {
+			recordedArguments[i] = readValue(recording);
+		}
+
+		byte outcome = recording.get();
+		Object result = readValue(recording);
+
+		if (!recordedMethod.equals(method) || !Arrays.deepEquals(recordedArguments, arguments)) {
+			throw new AssertionError("Expected recorded call " + signature(recordedMethod) + " with "
+					+ Arrays.deepToString(recordedArguments) + " but was " + signature(method) + " with "
+					+ Arrays.deepToString(arguments));
+		}
+
+		if (outcome == THREW) {
+			throw (Throwable) result;
+		}
+
+		return result;
+	}
+
+	private class RecordedAnswer implements IAnswer<Object> {
+
+		private final Method method;
+
+		RecordedAnswer(Method method) {
+			this.method = method;
+		}
+
+		@Override
+		public Object answer() throws Throwable {
+			return InteractionReplayer.this.answer(method, EasyMock.getCurrentArguments());
+		}
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import java.lang.ref.Reference;
+import java.lang.ref.SoftReference;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.easymock.internal.MockInvocationHandler;
+import org.easymock.internal.ObjectMethodsFilter;
+
+/**
+ * Creates interface mocks as java.lang.reflect.Proxy instances, as EasyMock's
+ * JavaProxyFactory does, but looks up the proxy class's constructor once per
+ * interface, and makes each mock's ObjectMethodsFilter with the same equals,
+ * hashCode and toString methods, looked up once, instead of the three copies
+ * the filter's constructor would look up for every mock. A mock then holds on
+ * to nothing that is the same for every mock of its interface. The cache refers
+ * weakly to the interfaces and softly to the constructors, so it doesn't stop
+ * a class loader being collected.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+class InterfaceMockFactory {
+
+	static final InterfaceMockFactory INSTANCE = new InterfaceMockFactory();
+
+	private static final Method EQUALS = objectMethod("equals", Object.class);
+
+	private static final Method HASH_CODE = objectMethod("hashCode");
+
+	private static final Method TO_STRING = objectMethod("toString");
+
+	private final Lock lock = new ReentrantLock();
+
+	private final Map<Class<?>, Reference<Constructor<?>>> proxyConstructors = new WeakHashMap<Class<?>, Reference<Constructor<?>>>();
+
+	private InterfaceMockFactory() {
+	}
+
+	/**
+	 * Create a mock of the interface, answering through the given handler.
+	 * 
+	 * @param toMock
+	 * @param delegate
+	 *            the handler of the control the mock belongs to
+	 * @param name
+	 *            the mock's name, or null for none
+	 * @return the mock
+	 */
+	Object createMock(Class<?> toMock, MockInvocationHandler delegate, String name) {
+
+		ObjectMethodsFilter filter = ClassMockFactory.newFilter(delegate, name, EQUALS, HASH_CODE, TO_STRING);
+
+		try {
+			return getProxyConstructor(toMock).newInstance(filter);
+
+		} catch (Exception e) {
+			throw new IllegalStateException("Can't mock " + toMock.getName(), e);
+		}
+	}
+
+	private Constructor<?> getProxyConstructor(Class<?> toMock) throws NoSuchMethodException {
+
+		lock.lock();
+		try {
+			Reference<Constructor<?>> cached = proxyConstructors.get(toMock);
+			Constructor<?> constructor = cached == null ? null : cached.get();
+
+			if (constructor == null) {
+				constructor = Proxy.getProxyClass(toMock.getClassLoader(), toMock).getConstructor(
+						InvocationHandler.class);
+				constructor.setAccessible(true);
+				proxyConstructors.put(toMock, new SoftReference<Constructor<?>>(constructor));
+			}
+
+			return constructor;
+
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @param toMock
+	 * @return true if the proxy constructor for the interface is cached
+	 */
+	boolean isCached(Class<?> toMock) {
+
+		lock.lock();
+		try {
+			Reference<Constructor<?>> cached = proxyConstructors.get(toMock);
+			return cached != null && cached.get() != null;
+
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private static Method objectMethod(String name, Class<?>... parameterTypes) {
+
+		try {
+			return Object.class.getMethod(name, parameterTypes);
+
+		} catch (NoSuchMethodException e) {
+			throw new IllegalStateException("Can't find Object." + name, e);
+		}
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.runners.model.FrameworkMethod;
+
+/**
+ * Runs a test method on several threads at once, for a number of iterations
+ * shared between the threads or for a fixed time, timing each iteration.
+ * The first failure stops every thread and is rethrown once they have all
+ * stopped.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+class LoadRunner {
+
+	private final Object test;
+
+	private final FrameworkMethod body;
+
+	private final int threads;
+
+	private final int iterations;
+
+	private final long durationNanos;
+
+	private final AtomicInteger remaining;
+
+	private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+	private volatile boolean stopped;
+
+	/**
+	 * @param load
+	 *            how to run the test method
+	 * @param test
+	 *            the test instance
+	 * @param body
+	 *            the test method
+	 */
+	LoadRunner(LoadTest load, Object test, FrameworkMethod body) {
+
+		if (load.threads() < 1 || load.iterations() < 1 || load.durationMillis() < 0) {
+			throw new IllegalArgumentException("Invalid @LoadTest on " + body.getName() + ": " + load);
+		}
+
+		this.test = test;
+		this.body = body;
+		this.threads = load.threads();
+		this.iterations = load.iterations();
+		this.durationNanos = TimeUnit.MILLISECONDS.toNanos(load.durationMillis());
+		this.remaining = new AtomicInteger(iterations);
+	}
+
+	/**
+	 * @return the most iterations that may run, which is unbounded for a run
+	 *         of fixed duration
+	 */
+	int getMaximumIterations() {
+		return durationNanos > 0 ? Integer.MAX_VALUE : iterations;
+	}
+
+	/**
+	 * Run the iterations and wait for them all to finish.
+	 * 
+	 * @return the throughput and latency of the iterations
+	 * @throws Throwable
+	 *             the first failure of any iteration
+	 */
+	LoadTestReport run() throws Throwable {
+
+		final CountDownLatch start = new CountDownLatch(1);
+		final LatencyHistogram[] latencies = new LatencyHistogram[threads];
+		Thread[] workers = new Thread[threads];
+
+		for (int i = 0; i < threads; i++) {
+
+			final LatencyHistogram histogram = new LatencyHistogram();
+			latencies[i] = histogram;
+
+			workers[i] = new Thread("LoadTest-" + body.getName() + "-" + i) {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						iterate(histogram);
+
+					} catch (Throwable e) {
+						failure.compareAndSet(null, e);
+						stopped = true;
+					}
+				}
+			};
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+
+		long begin = System.nanoTime();
+		start.countDown();
+		join(workers);
+		long elapsed = System.nanoTime() - begin;
+
+		if (failure.get() != null) {
+			throw failure.get();
+		}
+
+		LatencyHistogram total = new LatencyHistogram();
+		for (LatencyHistogram histogram : latencies) {
+			total.add(histogram);
+		}
+
+		return new LoadTestReport(body.getName(), threads, elapsed, total);
+	}
+
+	private void iterate(LatencyHistogram histogram) throws Throwable {
+
+		long deadline = System.nanoTime() + durationNanos;
+
+		while (!stopped && (durationNanos > 0 ? System.nanoTime() - deadline < 0 : remaining.getAndDecrement() > 0)) {
+
+			long start = System.nanoTime();
+			body.invokeExplosively(test);
+			histogram.record(System.nanoTime() - start);
+		}
+	}
+
+	// If the test's thread is interrupted, eg by a fail fast mock, stop the
+	// workers and still wait for them, so that no call arrives after the test.
+	private void join(Thread[] workers) {
+
+		boolean interrupted = false;
+
+		for (Thread worker : workers) {
+			while (worker.isAlive()) {
+				try {
+					worker.join();
+
+				} catch (InterruptedException e) {
+					interrupted = true;
+					stopped = true;
+				}
+			}
+		}
+
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
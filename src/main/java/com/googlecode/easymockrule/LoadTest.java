@@ -0,0 +1,59 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Run a test method repeatedly on several threads, against the same replayed
+ * mocks, and report its throughput and latency. The test's &#64;Before
+ * methods run once, and should record the expectations for a single run of
+ * the test method and then replay the mocks. The expected number of each call
+ * is multiplied by the number of runs before the mocks are verified, so
+ * consecutive results for one expectation are given out in blocks, and a
+ * strict mock can only check its order with a single thread. The &#64;After
+ * methods run once at the end. Expected exceptions and timeouts given by
+ * &#64;Test are not applied to a load test, and the class can have no rule
+ * but the EasyMockRule, since the rule runs the test method itself.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+@Documented
+public @interface LoadTest {
+
+	/**
+	 * @return number of threads running the test method at once
+	 */
+	int threads() default 1;
+
+	/**
+	 * @return number of times to run the test method, shared between the
+	 *         threads
+	 */
+	int iterations() default 1000;
+
+	/**
+	 * @return how long to run the test method for, in milliseconds, instead
+	 *         of a number of iterations
+	 */
+	long durationMillis() default 0;
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import java.util.Locale;
+
+/**
+ * Throughput and latency of a test method run as a &#64;LoadTest.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+public class LoadTestReport {
+
+	private final String name;
+
+	private final int threads;
+
+	private final long elapsedNanos;
+
+	private final LatencyHistogram latencies;
+
+	LoadTestReport(String name, int threads, long elapsedNanos, LatencyHistogram latencies) {
+		this.name = name;
+		this.threads = threads;
+		this.elapsedNanos = elapsedNanos;
+		this.latencies = latencies;
+	}
+
+	/**
+	 * @return number of threads that ran the test method
+	 */
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * @return number of times the test method completed
+	 */
+	public long getIterations() {
+		return latencies.getCount();
+	}
+
+	/**
+	 * @return wall clock time taken by all the iterations, in nanoseconds
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	/**
+	 * @return iterations completed per second
+	 */
+	public double getThroughput() {
+		return elapsedNanos == 0 ? 0 : getIterations() * 1e9 / elapsedNanos;
+	}
+
+	/**
+	 * @param percentile
+	 *            between 0 and 100, eg 99.9
+	 * @return latency of a single iteration, in nanoseconds, that the given
+	 *         percentage of iterations took no longer than, to within 1.6%
+	 */
+	public long getLatencyNanos(double percentile) {
+		return latencies.getValueAtPercentile(percentile);
+	}
+
+	@Override
+	public String toString() {
+		return String.format(Locale.ROOT,
+				"%s: %d iterations on %d threads in %.1fms, %.0f per second, latency p50 %.1fus p99 %.1fus p99.9 %.1fus",
+				name, getIterations(), threads, elapsedNanos / 1e6, getThroughput(), getLatencyNanos(50) / 1e3,
+				getLatencyNanos(99) / 1e3, getLatencyNanos(99.9) / 1e3);
+	}
+}
@@ -0,0 +1,333 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+
+/**
+ * A TCP server on the loopback interface that stands in for a remote service,
+ * so that network client code can be tested, and timed, against a mock. Each
+ * frame is a four byte big endian length followed by that many bytes of
+ * payload, in both directions. Requests are read with non blocking NIO on a
+ * single thread, answered through a FrameCodec in the order they arrive on
+ * each connection, and the answers written back as they are ready.
+ * <p>
+ * Anything thrown while answering drops the connection and is thrown again by
+ * close(), so that the test fails with it.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+public class LoopbackServer<T> implements Closeable {
+
+	private static final int MAX_FRAME = 16 * 1024 * 1024;
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private final T service;
+
+	private final FrameCodec<T> codec;
+
+	private final Selector selector;
+
+	private final ServerSocketChannel serverChannel;
+
+	private final Thread thread;
+
+	private volatile boolean running = true;
+
+	private volatile Throwable failure;
+
+	/**
+	 * Start serving on an ephemeral loopback port.
+	 * 
+	 * @param service
+	 *            the service to answer requests, typically a mock
+	 * @param codec
+	 *            turns requests into calls on the service and back
+	 * @throws IOException
+	 */
+	public LoopbackServer(T service, FrameCodec<T> codec) throws IOException {
+
+		this.service = service;
+		this.codec = codec;
+
+		selector = Selector.open();
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.configureBlocking(false);
+		serverChannel.socket().bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				serve();
+			}
+		}, "LoopbackServer-" + serverChannel.socket().getLocalPort());
+
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * @return the address to connect clients to
+	 */
+	public InetSocketAddress getAddress() {
+		return (InetSocketAddress) serverChannel.socket().getLocalSocketAddress();
+	}
+
+	/**
+	 * Stop serving and close every connection, then throw the first thing
+	 * that was thrown while answering, if anything was.
+	 */
+	@Override
+	public void close() throws IOException {
+
+		running = false;
+		selector.wakeup();
+
+		try {
+			thread.join();
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		Throwable t = failure;
+
+		if (t instanceof Error) {
+			throw (Error) t;
+		}
+
+		if (t instanceof RuntimeException) {
+			throw (RuntimeException) t;
+		}
+
+		if (t != null) {
+			throw new IllegalStateException("Loopback server failed to answer a request", t);
+		}
+	}
+
+	private void serve() {
+
+		try {
+			while (running) {
+
+				selector.select();
+
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+
+					try {
+						handle(key);
+
+					} catch (IOException e) {
+						// The client went away
+						drop(key);
+					}
+				}
+			}
+
+		} catch (IOException e) {
+			failed(e);
+
+		} finally {
+			closeAll();
+		}
+	}
+
+	private void handle(SelectionKey key) throws IOException {
+
+		if (!key.isValid()) {
+			return;
+		}
+
+		if (key.isAcceptable()) {
+			SocketChannel channel = serverChannel.accept();
+
+			if (channel != null) {
+				channel.configureBlocking(false);
+				channel.socket().setTcpNoDelay(true);
+				channel.register(selector, SelectionKey.OP_READ, new Connection());
+			}
+			return;
+		}
+
+		Connection connection = (Connection) key.attachment();
+
+		if (key.isReadable() && !read(key, connection)) {
+			drop(key);
+			return;
+		}
+
+		flush(key, connection);
+	}
+
+	// Answers every complete frame that has arrived, and returns false if the
+	// connection should be dropped.
+	private boolean read(SelectionKey key, Connection connection) throws IOException {
+
+		if (((SocketChannel) key.channel()).read(connection.in) < 0) {
+			return false;
+		}
+
+		ByteBuffer in = connection.in;
+		in.flip();
+
+		try {
+			while (in.remaining() >= 4) {
+
+				int length = in.getInt(in.position());
+
+				if (length < 0 || length > MAX_FRAME) {
+					failed(new IOException("Bad frame length " + length));
+					return false;
+				}
+
+				if (in.remaining() < 4 + length) {
+					break;
+				}
+
+				int end = in.position() + 4 + length;
+				in.position(in.position() + 4);
+
+				ByteBuffer request = in.slice();
+				request.limit(length);
+				in.position(end);
+
+				if (!answer(request, connection)) {
+					return false;
+				}
+			}
+
+		} finally {
+			in.compact();
+		}
+
+		connection.makeRoom(in.position() >= 4 ? in.getInt(0) + 4 : 0);
+
+		return true;
+	}
+
+	private boolean answer(ByteBuffer request, Connection connection) {
+
+		ByteBuffer answer;
+
+		try {
+			answer = codec.answer(request, service);
+
+		} catch (Throwable t) {
+			failed(t);
+			return false;
+		}
+
+		if (answer != null) {
+			connection.queue(answer);
+		}
+
+		return true;
+	}
+
+	private void flush(SelectionKey key, Connection connection) throws IOException {
+
+		ByteBuffer out = connection.out;
+
+		if (out.position() > 0) {
+			out.flip();
+			((SocketChannel) key.channel()).write(out);
+			out.compact();
+		}
+
+		key.interestOps(out.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+	}
+
+	private void failed(Throwable t) {
+
+		if (failure == null) {
+			failure = t;
+		}
+	}
+
+	private void drop(SelectionKey key) {
+
+		key.cancel();
+
+		try {
+			key.channel().close();
+
+		} catch (IOException e) {
+			// Nothing more to do with it
+		}
+	}
+
+	private void closeAll() {
+
+		for (SelectionKey key : selector.keys()) {
+			drop(key);
+		}
+
+		try {
+			selector.close();
+
+		} catch (IOException e) {
+			failed(e);
+		}
+	}
+
+	/**
+	 * The unanswered bytes read from a connection, and the answers not yet
+	 * written to it.
+	 */
+	private static class Connection {
+
+		private ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+
+		private ByteBuffer out = ByteBuffer.allocate(BUFFER_SIZE);
+
+		// Grows the read buffer when the next frame won't fit in it.
+		void makeRoom(int frameSize) {
+
+			if (frameSize > in.capacity()) {
+				in.flip();
+				in = ByteBuffer.allocate(frameSize).put(in);
+			}
+		}
+
+		void queue(ByteBuffer answer) {
+
+			int needed = 4 + answer.remaining();
+
+			if (out.remaining() < needed) {
+				out.flip();
+				out = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.remaining() + needed)).put(out);
+			}
+
+			out.putInt(answer.remaining());
+			out.put(answer);
+		}
+	}
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import java.lang.reflect.Field;
+
+import org.easymock.internal.ExpectedInvocation;
+import org.easymock.internal.ExpectedInvocationAndResults;
+import org.easymock.internal.Invocation;
+import org.easymock.internal.MocksControl;
+import org.easymock.internal.MocksControl.MockType;
+import org.easymock.internal.ObjectMethodsFilter;
+import org.easymock.internal.Range;
+import org.easymock.internal.ReplayState;
+
+/**
+ * A live view of one mock, interface or class: what it is, what state its
+ * control is in, and how its expectations stand. The mock is looked up once,
+ * when the view is made, and every getter reads the current state, so a view
+ * can be polled as a test runs. Stubs and unexpected calls aren't counted.
+ * Counts read while the mock is being called may be a call behind.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+public class MockDetails {
+
+	private static final Field NAME = field(ObjectMethodsFilter.class, "name");
+
+	private static final Field TYPE = field(MocksControl.class, "type");
+
+	private static final Field INVOCATION = field(ExpectedInvocation.class, "invocation");
+
+	private final Object mock;
+
+	private final String name;
+
+	private final Class<?> mockedType;
+
+	private final MocksControl control;
+
+	MockDetails(Object mock, ObjectMethodsFilter handler) {
+
+		this.mock = mock;
+		this.mockedType = EasyMockUtils.getMockedType(mock);
+		this.control = handler.getDelegate().getControl();
+
+		try {
+			this.name = (String) NAME.get(handler);
+
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException("Can't read the name of " + mock, e);
+		}
+	}
+
+	private static Field field(Class<?> type, String name) {
+
+		try {
+			Field f = type.getDeclaredField(name);
+			f.setAccessible(true);
+			return f;
+
+		} catch (NoSuchFieldException e) {
+			throw new IllegalStateException("Unsupported EasyMock version", e);
+		}
+	}
+
+	/**
+	 * @return the mock's name, or null if it wasn't given one
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the interface or class that was mocked
+	 */
+	public Class<?> getMockedType() {
+		return mockedType;
+	}
+
+	/**
+	 * @return the control owning the mock, which may own other mocks too
+	 */
+	public MocksControl getControl() {
+		return control;
+	}
+
+	/**
+	 * @return the kind of mock, DEFAULT, NICE or STRICT, which a reset can
+	 *         change
+	 */
+	public String getKind() {
+
+		try {
+			return ((MockType) TYPE.get(control)).toString();
+
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException("Can't read the type of " + control, e);
+		}
+	}
+
+	/**
+	 * @return true if the mock has been replayed, false while it is recording
+	 */
+	public boolean isReplaying() {
+		return control.getState() instanceof ReplayState;
+	}
+
+	/**
+	 * @return the number of distinct calls the mock has been told to expect
+	 */
+	public int getExpectations() {
+
+		int expectations = 0;
+
+		for (ExpectedInvocationAndResults expected : WatchedBehavior.expectations(control)) {
+			if (isForThisMock(expected)) {
+				expectations++;
+			}
+		}
+
+		return expectations;
+	}
+
+	/**
+	 * @return the least number of calls that the mock's expectations need, not
+	 *         counting those that any number of calls satisfies
+	 */
+	public int getExpectedCalls() {
+
+		long calls = 0;
+
+		for (ExpectedInvocationAndResults expected : WatchedBehavior.expectations(control)) {
+			if (isForThisMock(expected)) {
+				for (Range range : WatchedBehavior.ranges(expected.getResults())) {
+					calls += range.getMinimum();
+				}
+			}
+		}
+
+		return (int) Math.min(calls, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @return the number of calls the mock has answered from its expectations
+	 */
+	public int getCalls() {
+
+		int calls = 0;
+
+		for (ExpectedInvocationAndResults expected : WatchedBehavior.expectations(control)) {
+			if (isForThisMock(expected)) {
+				calls += expected.getResults().getCallCount();
+			}
+		}
+
+		return calls;
+	}
+
+	// A control may own many mocks, so its expectations are picked out by the
+	// mock they were recorded against.
+	private boolean isForThisMock(ExpectedInvocationAndResults expected) {
+
+		try {
+			return ((Invocation) INVOCATION.get(expected.getExpectedInvocation())).getMock() == mock;
+
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException("Can't read the mock expecting " + expected, e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return name + " (" + getKind() + (isReplaying() ? ", replaying" : ", recording") + "): " + getCalls()
+				+ " of " + getExpectedCalls() + " expected calls";
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The index of test classes and the types their mock fields need, written at
+ * compile time by MockIndexProcessor to {@value #RESOURCE} and read back at
+ * run time by MockWarmUpListener. Each line is a test class name, an equals sign and
+ * a comma separated list of mocked type names, all as binary names that can
+ * be passed to Class.forName.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+public class MockIndex {
+
+	public static final String RESOURCE = "META-INF/easymockrule/mock-index";
+
+	private static final String UTF_8 = "UTF-8";
+
+	private MockIndex() {
+		// Hide utility class constructor
+	}
+
+	/**
+	 * Write an index.
+	 * 
+	 * @param out
+	 * @param index
+	 *            mocked type names by test class name
+	 */
+	public static void write(Writer out, Map<String, ? extends Set<String>> index) {
+
+		PrintWriter writer = new PrintWriter(out);
+
+		for (Map.Entry<String, ? extends Set<String>> entry : index.entrySet()) {
+
+			StringBuilder line = new StringBuilder(entry.getKey()).append('=');
+
+			for (String type : entry.getValue()) {
+				line.append(type).append(',');
+			}
+
+			writer.println(line.substring(0, line.length() - 1));
+		}
+
+		writer.flush();
+	}
+
+	/**
+	 * Read and merge every index visible to the given class loader.
+	 * 
+	 * @param classLoader
+	 * @return mocked type names by test class name
+	 * @throws IOException
+	 */
+	public static Map<String, List<String>> read(ClassLoader classLoader) throws IOException {
+
+		Map<String, List<String>> index = new LinkedHashMap<String, List<String>>();
+		Enumeration<URL> resources = classLoader.getResources(RESOURCE);
+
+		while (resources.hasMoreElements()) {
+			read(resources.nextElement(), index);
+		}
+
+		return index;
+	}
+
+	private static void read(URL resource, Map<String, List<String>> index) throws IOException {
+
+		BufferedReader in = new BufferedReader(new InputStreamReader(resource.openStream(), UTF_8));
+
+		try {
+			String line;
+
+			while ((line = in.readLine()) != null) {
+
+				int separator = line.indexOf('=');
+
+				if (separator > 0) {
+					index.put(line.substring(0, separator),
+							new ArrayList<String>(Arrays.asList(line.substring(separator + 1).split(","))));
+				}
+			}
+
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic.Kind;
+import javax.tools.StandardLocation;
+
+/**
+ * Annotation processor that writes the MockIndex for the test classes being
+ * compiled. It is registered in META-INF/services, so javac runs it for any
+ * test compilation with this jar on the class path; on JDKs that no longer run
+ * discovered processors by default, enable it with -proc:full or list it in
+ * the compiler's annotationProcessors.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+@SupportedAnnotationTypes({ "com.googlecode.easymockrule.Mock", "com.googlecode.easymockrule.NiceMock",
+		"com.googlecode.easymockrule.StrictMock" })
+public class MockIndexProcessor extends AbstractProcessor {
+
+	private Map<String, Set<String>> index = new TreeMap<String, Set<String>>();
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+
+		for (TypeElement annotation : annotations) {
+			for (Element field : roundEnv.getElementsAnnotatedWith(annotation)) {
+				addToIndex(field);
+			}
+		}
+
+		if (roundEnv.processingOver() && !index.isEmpty()) {
+			writeIndex();
+		}
+
+		// Leave the annotations for any other processors
+		return false;
+	}
+
+	private void addToIndex(Element field) {
+
+		if (field.getKind() != ElementKind.FIELD) {
+			return;
+		}
+
+		String mockedType = binaryName(isSized(field) ? elementType(field.asType()) : field.asType());
+
+		if (mockedType == null) {
+			return;
+		}
+
+		String testClass = processingEnv.getElementUtils().getBinaryName((TypeElement) field.getEnclosingElement())
+				.toString();
+
+		if (!index.containsKey(testClass)) {
+			index.put(testClass, new TreeSet<String>());
+		}
+
+		index.get(testClass).add(mockedType);
+	}
+
+	private boolean isSized(Element field) {
+
+		Mock mock = field.getAnnotation(Mock.class);
+		NiceMock niceMock = field.getAnnotation(NiceMock.class);
+		StrictMock strictMock = field.getAnnotation(StrictMock.class);
+
+		return (mock != null && mock.size() > 0) || (niceMock != null && niceMock.size() > 0)
+				|| (strictMock != null && strictMock.size() > 0);
+	}
+
+	// The mocked type of a sized field is the last type argument of a List or
+	// Map, or the component type of an array.
+	private TypeMirror elementType(TypeMirror type) {
+
+		if (type.getKind() == TypeKind.ARRAY) {
+			return ((ArrayType) type).getComponentType();
+		}
+
+		if (type instanceof DeclaredType && !((DeclaredType) type).getTypeArguments().isEmpty()) {
+			List<? extends TypeMirror> arguments = ((DeclaredType) type).getTypeArguments();
+			return arguments.get(arguments.size() - 1);
+		}
+
+		return type;
+	}
+
+	private String binaryName(TypeMirror type) {
+
+		TypeMirror erasure = processingEnv.getTypeUtils().erasure(type);
+
+		if (!(erasure instanceof DeclaredType)) {
+			return null;
+		}
+
+		return processingEnv.getElementUtils().getBinaryName((TypeElement) ((DeclaredType) erasure).asElement())
+				.toString();
+	}
+
+	private void writeIndex() {
+
+		try {
+			Writer out = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", MockIndex.RESOURCE)
+					.openWriter();
+
+			try {
+				MockIndex.write(out, index);
+			} finally {
+				out.close();
+			}
+
+		} catch (IOException e) {
+			processingEnv.getMessager().printMessage(Kind.WARNING, "Could not write " + MockIndex.RESOURCE + ": " + e);
+		}
+	}
+}
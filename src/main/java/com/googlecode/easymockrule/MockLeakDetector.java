@@ -0,0 +1,92 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps weak references to mocks so that, once a test has finished and
+ * released them, we can report any that are still reachable from somewhere
+ * else.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+public class MockLeakDetector {
+
+	private static final int GC_ATTEMPTS = 3;
+
+	private List<MockReference> references = new ArrayList<MockReference>();
+
+	/**
+	 * Start watching the given mock.
+	 * 
+	 * @param mock
+	 *            the mock to watch
+	 * @param name
+	 *            name to report if the mock leaks
+	 */
+	public void track(Object mock, String name) {
+		references.add(new MockReference(mock, name));
+	}
+
+	/**
+	 * Check that every watched mock has been garbage collected, requesting a
+	 * few collections first, then stop watching them.
+	 * 
+	 * @throws AssertionError
+	 *             naming the mocks that are still reachable
+	 */
+	public void assertReleased() {
+
+		List<String> leaked = leakedMocks();
+
+		for (int attempt = 0; !leaked.isEmpty() && attempt < GC_ATTEMPTS; attempt++) {
+			System.gc();
+			leaked = leakedMocks();
+		}
+
+		references.clear();
+
+		if (!leaked.isEmpty()) {
+			throw new AssertionError("Mocks still reachable after the test completed: " + leaked);
+		}
+	}
+
+	private List<String> leakedMocks() {
+
+		List<String> leaked = new ArrayList<String>();
+
+		for (MockReference reference : references) {
+			if (reference.get() != null) {
+				leaked.add(reference.name);
+			}
+		}
+
+		return leaked;
+	}
+
+	private static class MockReference extends WeakReference<Object> {
+
+		private final String name;
+
+		MockReference(Object mock, String name) {
+			super(mock);
+			this.name = name;
+		}
+	}
+}
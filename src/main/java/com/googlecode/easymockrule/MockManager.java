@@ -16,8 +16,16 @@
 package com.googlecode.easymockrule;
 
 import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
-import org.easymock.EasyMockSupport;
+import org.easymock.internal.MocksControl;
+import org.easymock.internal.MocksControl.MockType;
+import org.easymock.internal.RecordState;
 
 /**
  * Allows creation of mocks for classes or interfaces, and operations on the
@@ -27,39 +35,164 @@ import org.easymock.EasyMockSupport;
  */
 public class MockManager {
 
-	private ExternalMockSupport interfaceMocks = new ExternalMockSupport();
-	private org.easymock.classextension.EasyMockSupport classMocks = new org.easymock.classextension.EasyMockSupport();
+	private ExternalMockSupport mockSupport = new ExternalMockSupport();
+
+	private Map<MockType, MocksControl> sharedControls;
+
+	private int recentCallsToKeep;
+
+	private Map<MocksControl, ManagedControl> managedControls = new LinkedHashMap<MocksControl, ManagedControl>();
+
+	private final UnexpectedCalls unexpectedCalls = new UnexpectedCalls();
+
+	/**
+	 * Create all further mocks from one control per mock type, so that replay
+	 * and verify deal with at most three controls however many mocks there
+	 * are, and the order of calls is checked across all the strict mocks
+	 * rather than for each strict mock separately.
+	 */
+	public void shareControls() {
+		sharedControls = new EnumMap<MockType, MocksControl>(MockType.class);
+	}
+
+	/**
+	 * Keep the last few calls made to each mock created from now on, and
+	 * list them under each mock that fails verifyAll. The calls are kept in a
+	 * buffer of the given size for each mock, or for each shared control, that
+	 * is allocated when the mock is created and then overwritten in place.
+	 * 
+	 * @param size
+	 *            number of calls to keep for each mock
+	 */
+	public void keepRecentCalls(int size) {
+
+		if (size < 1) {
+			throw new IllegalArgumentException("Must keep at least one call, not " + size);
+		}
+
+		recentCallsToKeep = size;
+	}
+
+	/**
+	 * Abort the test on the first unexpected call to any mock created from now
+	 * on, or any call over its expected limit, even if the code under test
+	 * catches the AssertionError. Every later call to any of the mocks fails
+	 * with the same error, and if the unexpected call was made on another
+	 * thread, the calling thread is interrupted. Call this on the thread
+	 * running the test. Lasts until releaseAll.
+	 */
+	public void failFast() {
+		unexpectedCalls.failFast(Thread.currentThread());
+	}
+
+	/**
+	 * Fail now if any mock created by this instance has had an unexpected
+	 * call, or a call over its expected limit, so far. Calls that are still
+	 * missing aren't checked, as the test may yet make them, so a long test
+	 * can check its progress as it goes and stop early.
+	 */
+	public void checkpoint() {
+		unexpectedCalls.assertNone();
+	}
 
 	/**
 	 * Replay all mocks known by this instance.
 	 */
 	public void replayAll() {
-		interfaceMocks.replayAll();
-		classMocks.replayAll();
+		mockSupport.replayAll();
 	}
 
 	/**
-	 * Verify all mocks known by this instance, first switching all mocks to
-	 * replay mode if not already in replay mode, so that simple test cases that
-	 * don't use the mocks do not need to call replayAll. A test that does use
-	 * the mocks will still fail if it forgets to call replayAll before
-	 * exercising the mocks.
+	 * Verify all mocks known by this instance, first switching any mock still
+	 * in record state to replay state, so that simple test cases that don't
+	 * use the mocks do not need to call replayAll. A test that does use the
+	 * mocks will still fail if it forgets to call replayAll before exercising
+	 * the mocks. Every mock is verified, and a single AssertionError lists
+	 * each one that failed, by name, so that one run shows all the broken
+	 * expectations.
 	 */
 	public void verifyAll() {
 
-		safeVerifyAll(interfaceMocks);
-		safeVerifyAll(classMocks);
-	}
+		long start = System.nanoTime();
 
-	private void safeVerifyAll(EasyMockSupport mockSupport) {
 		try {
-			mockSupport.verifyAll();
-		} catch (IllegalStateException e) {
-			mockSupport.replayAll();
-			mockSupport.verifyAll();
+			StringBuffer names = null;
+			StringBuffer details = null;
+			AssertionError first = null;
+
+			for (ManagedControl managed : managedControls.values()) {
+
+				AssertionError failure = managed.verify();
+
+				if (failure == null) {
+					continue;
+				}
+
+				if (first == null) {
+					first = failure;
+					names = new StringBuffer("Verification failed for ").append(managed.names());
+					details = new StringBuffer();
+				} else {
+					names.append(", ").append(managed.names());
+				}
+
+				details.append("\n").append(managed.names()).append(":").append(failure.getMessage());
+				managed.behavior.describeRecentCalls(details);
+			}
+
+			if (first != null) {
+				AssertionError failed = new AssertionError(names.append(details).toString());
+				failed.initCause(first);
+				throw failed;
+			}
+
+		} finally {
+			statistics().mocksVerified(System.nanoTime() - start);
 		}
 	}
 
+	/**
+	 * Multiply the number of calls expected by every expectation recorded so
+	 * far on the mocks known by this instance, relative to the counts as they
+	 * were recorded, so that a test can run many times against one set of
+	 * expectations and still be verified.
+	 * 
+	 * @param factor
+	 *            number of times the recorded calls are expected
+	 */
+	void scaleExpectations(int factor) {
+
+		for (ManagedControl managed : managedControls.values()) {
+			managed.behavior.scaleExpectations(factor);
+		}
+	}
+
+	/**
+	 * Reset all mocks known by this instance and stop managing them, so that
+	 * their recorded expectations and invocations can be garbage collected
+	 * once the test has finished with them.
+	 */
+	public void releaseAll() {
+
+		mockSupport.resetAll();
+		mockSupport = new ExternalMockSupport();
+
+		if (sharedControls != null) {
+			sharedControls.clear();
+		}
+
+		int liveMocks = 0;
+
+		for (ManagedControl managed : managedControls.values()) {
+			liveMocks += managed.mocks();
+		}
+
+		managedControls.clear();
+		unexpectedCalls.clear();
+
+		statistics().mocksReleased(liveMocks);
+	}
+
 	/**
 	 * Create a default mock for the given Field, whether it is a class or an interface, using the field name as the mock name.
 	 * 
@@ -89,13 +222,17 @@ public class MockManager {
 	 */
 	public <T> T createMock(String name, Class<T> toMock) {
 
-		if (toMock.isInterface()) {
-			return interfaceMocks.createMock(safe(name), toMock);
+		long start = System.nanoTime();
+		T mock;
 
-		} else {
-			return classMocks.createMock(safe(name), toMock);
+		if (sharedControls != null) {
+			mock = sharedControl(MockType.DEFAULT).createMock(safe(name), toMock);
 
+		} else {
+			mock = control(MockType.DEFAULT).createMock(safe(name), toMock);
 		}
+
+		return created(mock, name, toMock, MockType.DEFAULT, start);
 	}
 
 	/**
@@ -127,13 +264,17 @@ public class MockManager {
 	 */
 	public <T> T createNiceMock(String name, Class<T> toMock) {
 
-		if (toMock.isInterface()) {
-			return interfaceMocks.createNiceMock(safe(name), toMock);
+		long start = System.nanoTime();
+		T mock;
 
-		} else {
-			return classMocks.createNiceMock(safe(name), toMock);
+		if (sharedControls != null) {
+			mock = sharedControl(MockType.NICE).createMock(safe(name), toMock);
 
+		} else {
+			mock = control(MockType.NICE).createMock(safe(name), toMock);
 		}
+
+		return created(mock, name, toMock, MockType.NICE, start);
 	}
 
 	/**
@@ -165,35 +306,321 @@ public class MockManager {
 	 */
 	public <T> T createStrictMock(String name, Class<T> toMock) {
 
-		if (toMock.isInterface()) {
-			return interfaceMocks.createStrictMock(safe(name), toMock);
+		long start = System.nanoTime();
+		T mock;
+
+		if (sharedControls != null) {
+			mock = sharedControl(MockType.STRICT).createMock(safe(name), toMock);
 
 		} else {
-			return classMocks.createStrictMock(safe(name), toMock);
+			mock = control(MockType.STRICT).createMock(safe(name), toMock);
+		}
+
+		return created(mock, name, toMock, MockType.STRICT, start);
+	}
+
+	/**
+	 * Create a batch of default mocks of the given Class from a single control, named after the given name and their index.
+	 * 
+	 * @param name Name for the batch, eg tenants for mocks named tenants0, tenants1 and so on
+	 * @param toMock Class for which to create mocks
+	 * @param count Number of mocks to create
+	 * @return Default mocks for the Class, in index order
+	 */
+	public <T> List<T> createMocks(String name, Class<T> toMock, int count) {
+		return createMocks(name, toMock, MockType.DEFAULT, count);
+	}
+
+	/**
+	 * Create a batch of nice mocks of the given Class from a single control, named after the given name and their index.
+	 * 
+	 * @param name Name for the batch, eg tenants for mocks named tenants0, tenants1 and so on
+	 * @param toMock Class for which to create mocks
+	 * @param count Number of mocks to create
+	 * @return Nice mocks for the Class, in index order
+	 */
+	public <T> List<T> createNiceMocks(String name, Class<T> toMock, int count) {
+		return createMocks(name, toMock, MockType.NICE, count);
+	}
+
+	/**
+	 * Create a batch of strict mocks of the given Class from a single control, named after the given name and their index.
+	 * 
+	 * @param name Name for the batch, eg tenants for mocks named tenants0, tenants1 and so on
+	 * @param toMock Class for which to create mocks
+	 * @param count Number of mocks to create
+	 * @return Strict mocks for the Class, in index order
+	 */
+	public <T> List<T> createStrictMocks(String name, Class<T> toMock, int count) {
+		return createMocks(name, toMock, MockType.STRICT, count);
+	}
+
+	/**
+	 * Create a batch of mocks of the given type together. The batch shares one
+	 * control, or the shared control for the type when controls are shared, so
+	 * it is set up, replayed and verified once rather than once per mock, and
+	 * a verification failure names the batch. The order of calls to a batch of
+	 * strict mocks is checked across the whole batch.
+	 * 
+	 * @param name Name for the batch
+	 * @param toMock Class for which to create mocks
+	 * @param type Type of mocks to create
+	 * @param count Number of mocks to create
+	 * @return The mocks, in index order
+	 */
+	<T> List<T> createMocks(String name, Class<T> toMock, MockType type, int count) {
+
+		if (count < 1) {
+			throw new IllegalArgumentException("Must create at least one mock, not " + count);
+		}
+
+		long start = System.nanoTime();
+		String batchName = safe(name);
+		MocksControl control = sharedControls != null ? sharedControl(type) : control(type);
+		List<T> batch = new ArrayList<T>(count);
+
+		for (int i = 0; i < count; i++) {
+			batch.add(control.createMock(batchName + i, toMock));
+		}
 
+		long nanosPerMock = (System.nanoTime() - start) / count;
+
+		for (int i = 0; i < count; i++) {
+			statistics().mockCreated(toMock, type, nanosPerMock);
 		}
+
+		manage(batch, batchName + "[" + count + "]", sharedControls != null ? "the " + type + " mocks" : batchName,
+				false);
+
+		return batch;
+	}
+
+	/**
+	 * Create a mock with the expectations recorded by the given template, managed along with the other mocks.
+	 * 
+	 * @param template Template holding the expectations, normally shared by all the tests in a class
+	 * @return New mock, in record state, with the template's expectations
+	 */
+	public <T> T createMock(ExpectationTemplate<T> template) {
+
+		long start = System.nanoTime();
+
+		T mock = template.newMock();
+		mockSupport.registerMock(mock);
+
+		return created(mock, template.getMockedType().getName(), template.getMockedType(), template.getMockType(),
+				start);
+	}
+
+	private <T> T created(T mock, String name, Class<T> toMock, MockType type, long start) {
+
+		statistics().mockCreated(toMock, type, System.nanoTime() - start);
+
+		manage(Collections.singletonList(mock), safe(name), sharedControls != null ? "the " + type + " mocks"
+				: safe(name), false);
+
+		return mock;
+	}
+
+	// Mocks from a shared control are verified together, under all their names.
+	// Every control is a class extension control, so its classes are loaded
+	// even by a suite that only mocks interfaces, but ClassMockControl creates
+	// interface mocks as JDK proxies, so that suite never builds a CGLIB class.
+	private void manage(List<?> mocks, String name, String description, boolean registered) {
+
+		MocksControl control = EasyMockUtils.getMockControl(mocks.get(0));
+		ManagedControl managed = managedControls.get(control);
+
+		if (managed == null) {
+			managed = new ManagedControl(control, WatchedBehavior.watch(control, unexpectedCalls));
+			managedControls.put(control, managed);
+
+			if (recentCallsToKeep > 0) {
+				managed.behavior.keepRecentCalls(new RecentCalls(description, recentCallsToKeep));
+			}
+		}
+
+		managed.members.add(new Member(mocks, name, registered));
+	}
+
+	// Looked up on first use rather than when the manager is made, so that the
+	// MBean is only registered once a mock is created or verified.
+	private static EasyMockRuleStatistics statistics() {
+		return EasyMockRuleStatistics.getInstance();
+	}
+
+	// Each mock gets a control of its own that creates it from what is cached
+	// for the mocked type, whether that is a class or an interface.
+	private MocksControl control(MockType type) {
+
+		MocksControl control = new ClassMockControl(type);
+		mockSupport.registerControl(control);
+
+		return control;
+	}
+
+	// A class control creates interface mocks as well as class mocks.
+	private MocksControl sharedControl(MockType type) {
+
+		MocksControl control = sharedControls.get(type);
+
+		if (control == null) {
+			control = new ClassMockControl(type);
+			mockSupport.registerControl(control);
+			sharedControls.put(type, control);
+		}
+
+		return control;
 	}
 
 	// EasyMock doesn't allow names that aren't valid java identifiers.
 	private <T> String safe(String name) {
-		return name.replaceAll("\\.", "_");
+		return name.indexOf('.') < 0 ? name : name.replace('.', '_');
 	}
 
 	/**
-	 * Add the given mock to be managed by this instance.
+	 * Add the given mock to be managed by this instance. It counts as a live
+	 * mock until it is deregistered or released.
 	 * 
 	 * @param mock A Mock to manage
 	 */
 	public void registerMock(Object mock) {
-		interfaceMocks.registerMock(mock);
+		mockSupport.registerMock(mock);
+		statistics().mockRegistered();
+		manage(Collections.singletonList(mock), String.valueOf(mock), String.valueOf(mock), true);
 	}
 
 	/**
-	 * Remove the given mock from management by this instance.
+	 * Remove the given mock from management by this instance, so that it is
+	 * no longer counted as live. A control shared with other mocks, eg by
+	 * shareControls or a batch, is still replayed and verified for them, along
+	 * with any expectations recorded on this mock, and is only let go once its
+	 * last mock is deregistered.
 	 * 
 	 * @param mock The Mock to stop managing.
 	 */
 	public void deregisterMock(Object mock) {
-		interfaceMocks.deregisterMock(mock);
+
+		MocksControl control = EasyMockUtils.getMockControl(mock);
+		ManagedControl managed = managedControls.get(control);
+		Member member = managed == null ? null : managed.remove(mock);
+
+		if (member == null) {
+			mockSupport.deregisterMock(mock);
+			return;
+		}
+
+		statistics().mocksReleased(1);
+
+		if (member.registered) {
+			mockSupport.deregisterMock(mock);
+		}
+
+		if (managed.members.isEmpty()) {
+			managedControls.remove(control);
+			mockSupport.deregisterControl(control);
+
+			if (sharedControls != null) {
+				sharedControls.values().remove(control);
+			}
+		}
+	}
+
+	/**
+	 * A control known by this instance, with the mocks it created for it.
+	 */
+	private static class ManagedControl {
+
+		private final MocksControl control;
+
+		private final WatchedBehavior behavior;
+
+		private final List<Member> members = new ArrayList<Member>();
+
+		ManagedControl(MocksControl control, WatchedBehavior behavior) {
+			this.control = control;
+			this.behavior = behavior;
+		}
+
+		String names() {
+
+			StringBuilder names = new StringBuilder();
+
+			for (Member member : members) {
+				names.append(names.length() == 0 ? "" : ", ").append(member.name);
+			}
+
+			return names.toString();
+		}
+
+		int mocks() {
+
+			int mocks = 0;
+
+			for (Member member : members) {
+				mocks += member.mocks.size();
+			}
+
+			return mocks;
+		}
+
+		// Mocks are compared by identity, as they may be told what equals
+		// returns. A batch is let go once all of its mocks are.
+		Member remove(Object mock) {
+
+			for (Member member : members) {
+				for (int i = 0; i < member.mocks.size(); i++) {
+
+					if (member.mocks.get(i) != mock) {
+						continue;
+					}
+
+					member.mocks.remove(i);
+
+					if (member.mocks.isEmpty()) {
+						members.remove(member);
+					}
+
+					return member;
+				}
+			}
+
+			return null;
+		}
+
+		// A mock left in record state was never used, so replaying it first
+		// verifies that it wasn't expecting any calls.
+		AssertionError verify() {
+
+			if (control.getState() instanceof RecordState) {
+				control.replay();
+			}
+
+			try {
+				control.verify();
+				return null;
+
+			} catch (AssertionError e) {
+				return e;
+			}
+		}
+	}
+
+	/**
+	 * A mock, or a batch of mocks, managed under one name.
+	 */
+	private static class Member {
+
+		private final List<Object> mocks;
+
+		private final String name;
+
+		private final boolean registered;
+
+		Member(List<?> mocks, String name, boolean registered) {
+			this.mocks = new ArrayList<Object>(mocks);
+			this.name = name;
+			this.registered = registered;
+		}
 	}
 }
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import org.easymock.internal.MocksControl.MockType;
+import org.junit.runner.Description;
+import org.junit.runner.notification.RunListener;
+
+/**
+ * JUnit listener that, when a test run starts, warms up the mocks listed in
+ * the MockIndex on a background thread: it loads each indexed test class and
+ * finds its TestClassMetadata, and creates and discards one mock of every
+ * mocked type the way the rule does, so that what ClassMockFactory and
+ * InterfaceMockFactory cache for the type is ready before the first test
+ * needs it. Register it with Surefire's "listener" property. Anything that
+ * can't be warmed up is skipped, the rule will do the work as usual.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+public class MockWarmUpListener extends RunListener {
+
+	@Override
+	public void testRunStarted(Description description) {
+
+		Thread warmUp = new Thread(new Runnable() {
+			public void run() {
+				warmUp(Thread.currentThread().getContextClassLoader());
+			}
+		}, "EasyMockRule warm-up");
+
+		warmUp.setContextClassLoader(getClass().getClassLoader());
+		warmUp.setDaemon(true);
+		warmUp.start();
+	}
+
+	/**
+	 * Warm up every test class and mocked type in the indexes visible to the
+	 * given class loader.
+	 * 
+	 * @param classLoader
+	 * @return the number of mocked types warmed up
+	 */
+	public static int warmUp(ClassLoader classLoader) {
+
+		Map<String, List<String>> index;
+
+		try {
+			index = MockIndex.read(classLoader);
+		} catch (IOException e) {
+			return 0;
+		}
+
+		int warmed = 0;
+
+		for (Map.Entry<String, List<String>> entry : index.entrySet()) {
+
+			try {
+				TestClassMetadata.forClass(Class.forName(entry.getKey(), false, classLoader));
+			} catch (Throwable t) {
+				// Ignore, the rule will find it
+			}
+
+			for (String type : entry.getValue()) {
+				if (warmUp(type, classLoader)) {
+					warmed++;
+				}
+			}
+		}
+
+		return warmed;
+	}
+
+	private static boolean warmUp(String type, ClassLoader classLoader) {
+
+		try {
+			new ClassMockControl(MockType.DEFAULT).createMock(Class.forName(type, false, classLoader));
+			return true;
+
+		} catch (Throwable t) {
+			// Final classes, primitives and so on can't be mocked anyway
+			return false;
+		}
+	}
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import org.easymock.internal.ArgumentToString;
+import org.easymock.internal.Invocation;
+
+/**
+ * Keeps the last few calls made to the mocks of one control in replay state,
+ * in a ring buffer allocated up front, so that a verification failure can say
+ * what the mocks were actually asked to do. Only a reference to each
+ * Invocation that EasyMock has already created is kept.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+class RecentCalls {
+
+	private final String name;
+
+	private final Invocation[] calls;
+
+	private long count;
+
+	/**
+	 * @param name
+	 *            what to call the mocks in a failure message
+	 * @param size
+	 *            number of calls to keep
+	 */
+	RecentCalls(String name, int size) {
+		this.name = name;
+		this.calls = new Invocation[size];
+	}
+
+	// ReplayState holds its lock around the call that records this when the
+	// mocks are thread safe, which is the default, so the buffer needs no
+	// locking of its own.
+	void record(Invocation call) {
+		calls[(int) (count % calls.length)] = call;
+		count++;
+	}
+
+	/**
+	 * Describe the kept calls, oldest first.
+	 * 
+	 * @param message
+	 *            to append the description to
+	 */
+	void describeTo(StringBuffer message) {
+
+		if (count == 0) {
+			return;
+		}
+
+		int kept = (int) Math.min(count, calls.length);
+
+		message.append("\n  Last ").append(kept).append(" of ").append(count).append(" calls to ").append(name)
+				.append(":");
+
+		for (long i = count - kept; i < count; i++) {
+			Invocation call = calls[(int) (i % calls.length)];
+
+			message.append("\n    ").append(call.getMockAndMethodName()).append("(");
+
+			Object[] arguments = call.getArguments();
+
+			for (int a = 0; a < arguments.length; a++) {
+				if (a > 0) {
+					message.append(", ");
+				}
+				ArgumentToString.appendArgument(arguments[a], message);
+			}
+
+			message.append(")");
+		}
+	}
+}
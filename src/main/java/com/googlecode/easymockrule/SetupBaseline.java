@@ -0,0 +1,230 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * The time the rule spends on each test - creating and injecting the mocks
+ * and test subjects, and verifying the mocks - totalled per test class, and
+ * compared with a baseline file of the mean time per test for each class.
+ * The baseline is a properties file of class name to nanoseconds, sorted by
+ * class name so that it can be diffed. Times depend on the machine, so record
+ * the baseline on the machine that checks it. Times are only collected when
+ * the {@value SetupBaselineListener#MODE} system property is set.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+public class SetupBaseline {
+
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+	private static final SetupBaseline INSTANCE = new SetupBaseline(
+			System.getProperty(SetupBaselineListener.MODE) != null);
+
+	private final Map<String, ClassTimes> times = new TreeMap<String, ClassTimes>();
+
+	private final boolean collecting;
+
+	SetupBaseline() {
+		this(true);
+	}
+
+	SetupBaseline(boolean collecting) {
+		this.collecting = collecting;
+	}
+
+	/**
+	 * @return the times measured in this JVM
+	 */
+	public static SetupBaseline getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Add the time the rule spent on one test.
+	 * 
+	 * @param testClass
+	 * @param nanos
+	 */
+	synchronized void measured(Class<?> testClass, long nanos) {
+
+		if (!collecting) {
+			return;
+		}
+
+		ClassTimes classTimes = times.get(testClass.getName());
+
+		if (classTimes == null) {
+			classTimes = new ClassTimes();
+			times.put(testClass.getName(), classTimes);
+		}
+
+		classTimes.tests++;
+		classTimes.nanos += nanos;
+	}
+
+	/**
+	 * @return the mean time per test for each test class measured so far, by
+	 *         class name
+	 */
+	public synchronized Map<String, Long> getMeans() {
+
+		Map<String, Long> means = new TreeMap<String, Long>();
+
+		for (Map.Entry<String, ClassTimes> entry : times.entrySet()) {
+			means.put(entry.getKey(), entry.getValue().nanos / entry.getValue().tests);
+		}
+
+		return means;
+	}
+
+	/**
+	 * Write the means measured so far to the baseline file, keeping the
+	 * baseline of any class that wasn't measured in this run. The file is
+	 * locked while it is rewritten, so forks finishing together can share it.
+	 * 
+	 * @param file
+	 *            baseline file, created if it doesn't exist
+	 * @throws IOException
+	 */
+	public void record(File file) throws IOException {
+
+		RandomAccessFile access = new RandomAccessFile(file, "rw");
+
+		try {
+			FileChannel channel = access.getChannel();
+			FileLock lock = channel.lock();
+
+			try {
+				byte[] existing = new byte[(int) channel.size()];
+				channel.read(ByteBuffer.wrap(existing), 0);
+
+				Map<String, Long> baseline = parse(new ByteArrayInputStream(existing));
+				baseline.putAll(getMeans());
+
+				StringBuilder out = new StringBuilder(
+						"# Mean nanoseconds EasyMockRule spends setting up and verifying each test, see SetupBaseline\n");
+
+				for (Map.Entry<String, Long> entry : baseline.entrySet()) {
+					out.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+				}
+
+				channel.truncate(0);
+				channel.write(ByteBuffer.wrap(out.toString().getBytes(ISO_8859_1)), 0);
+
+			} finally {
+				lock.release();
+			}
+		} finally {
+			access.close();
+		}
+	}
+
+	/**
+	 * Compare the means measured so far with the baseline file. A class is a
+	 * regression if its mean is both more than ratio times its baseline and
+	 * more than slack over it, so that tiny times don't fail on noise. Classes
+	 * without a baseline are ignored.
+	 * 
+	 * @param file
+	 *            baseline file
+	 * @param ratio
+	 *            how many times its baseline a class may take
+	 * @param slackNanos
+	 *            how far over its baseline a class may always go
+	 * @return a description of each regression, empty if there are none
+	 * @throws IOException
+	 */
+	public List<String> findRegressions(File file, double ratio, long slackNanos) throws IOException {
+
+		Map<String, Long> baseline = read(file);
+		List<String> regressions = new ArrayList<String>();
+
+		for (Map.Entry<String, Long> entry : getMeans().entrySet()) {
+
+			Long expected = baseline.get(entry.getKey());
+			long actual = entry.getValue();
+
+			if (expected != null && actual > expected * ratio && actual - expected > slackNanos) {
+				regressions.add(String.format(Locale.ROOT, "%s took %.2fms per test to set up, baseline is %.2fms",
+						entry.getKey(), actual / 1e6, expected / 1e6));
+			}
+		}
+
+		return regressions;
+	}
+
+	/**
+	 * Forget everything measured so far.
+	 */
+	public synchronized void clear() {
+		times.clear();
+	}
+
+	private static Map<String, Long> read(File file) throws IOException {
+
+		if (!file.exists()) {
+			return new TreeMap<String, Long>();
+		}
+
+		InputStream in = new FileInputStream(file);
+
+		try {
+			return parse(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	private static Map<String, Long> parse(InputStream in) throws IOException {
+
+		Map<String, Long> baseline = new TreeMap<String, Long>();
+		Properties properties = new Properties();
+		properties.load(in);
+
+		for (String name : properties.stringPropertyNames()) {
+			baseline.put(name, Long.valueOf(properties.getProperty(name).trim()));
+		}
+
+		return baseline;
+	}
+
+	/**
+	 * The number of tests measured for a class and their total time.
+	 */
+	private static class ClassTimes {
+
+		private long tests;
+
+		private long nanos;
+	}
+}
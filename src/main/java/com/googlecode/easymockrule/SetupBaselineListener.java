@@ -0,0 +1,145 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.runner.Result;
+import org.junit.runner.notification.RunListener;
+
+/**
+ * JUnit listener that, when a test run finishes, records or checks the
+ * SetupBaseline for the test classes that ran. Register it with Surefire's
+ * "listener" property, and choose what it does with system properties:
+ * <ul>
+ * <li>{@value #MODE} - record to write the baseline, warn to report the
+ * classes whose setup has slowed down, or check to fail the run as well.
+ * Unset, the listener does nothing, and no times are collected.</li>
+ * <li>{@value #FILE} - the baseline file, by default {@value #DEFAULT_FILE}
+ * in the working directory, which Surefire sets to the project directory.
+ * Record it on the machine that checks it, since times differ from one
+ * machine to another.</li>
+ * <li>{@value #RATIO} - how many times its baseline a class may take, by
+ * default {@value #DEFAULT_RATIO}.</li>
+ * <li>{@value #SLACK_MILLIS} - how many milliseconds over its baseline a
+ * class may always take, by default {@value #DEFAULT_SLACK_MILLIS}.</li>
+ * <li>{@value #REPORT} - the file that warn and check write the slower
+ * classes to, by default {@value #DEFAULT_REPORT}. It is deleted when no
+ * class is slower.</li>
+ * </ul>
+ * A run that only covers some of the test classes records and checks only
+ * those.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+public class SetupBaselineListener extends RunListener {
+
+	public static final String MODE = "easymockrule.baseline";
+
+	public static final String FILE = "easymockrule.baseline.file";
+
+	public static final String RATIO = "easymockrule.baseline.ratio";
+
+	public static final String SLACK_MILLIS = "easymockrule.baseline.slackMillis";
+
+	public static final String REPORT = "easymockrule.baseline.report";
+
+	public static final String DEFAULT_FILE = "setup-baseline.properties";
+
+	public static final String DEFAULT_RATIO = "2.0";
+
+	public static final String DEFAULT_SLACK_MILLIS = "1";
+
+	public static final String DEFAULT_REPORT = "target/setup-baseline-report.txt";
+
+	private final SetupBaseline baseline;
+
+	public SetupBaselineListener() {
+		this(SetupBaseline.getInstance());
+	}
+
+	SetupBaselineListener(SetupBaseline baseline) {
+		this.baseline = baseline;
+	}
+
+	@Override
+	public void testRunFinished(Result result) throws Exception {
+
+		String mode = System.getProperty(MODE);
+
+		if (mode == null) {
+			return;
+		}
+
+		File file = new File(System.getProperty(FILE, DEFAULT_FILE));
+
+		if (mode.equals("record")) {
+			baseline.record(file);
+			return;
+		}
+
+		if (!mode.equals("warn") && !mode.equals("check")) {
+			throw new IllegalArgumentException(MODE + " must be record, warn or check, not " + mode);
+		}
+
+		List<String> regressions = baseline.findRegressions(file, Double.parseDouble(System.getProperty(RATIO,
+				DEFAULT_RATIO)), TimeUnit.MILLISECONDS.toNanos(Long.parseLong(System.getProperty(SLACK_MILLIS,
+				DEFAULT_SLACK_MILLIS))));
+
+		File report = new File(System.getProperty(REPORT, DEFAULT_REPORT));
+
+		if (regressions.isEmpty()) {
+			report.delete();
+			return;
+		}
+
+		StringBuilder message = new StringBuilder("EasyMockRule setup is slower than its baseline in ").append(file);
+
+		for (String regression : regressions) {
+			message.append("\n  ").append(regression);
+		}
+
+		writeReport(report, message + "\n");
+
+		// JUnit reports an exception from a listener as a failure of the run
+		if (mode.equals("check")) {
+			throw new IllegalStateException(message.toString());
+		}
+	}
+
+	private static void writeReport(File report, String message) throws IOException {
+
+		File parent = report.getAbsoluteFile().getParentFile();
+
+		if (!parent.isDirectory() && !parent.mkdirs()) {
+			throw new IOException("Can't create the directory for " + report);
+		}
+
+		Writer out = new OutputStreamWriter(new FileOutputStream(report), "UTF-8");
+
+		try {
+			out.write(message);
+		} finally {
+			out.close();
+		}
+	}
+}
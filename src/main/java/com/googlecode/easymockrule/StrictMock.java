@@ -28,4 +28,13 @@ import java.lang.annotation.Target;
 @Retention(RetentionPolicy.RUNTIME)
 @Target(ElementType.FIELD)
 @Documented
-public @interface StrictMock {}
+public @interface StrictMock {
+
+	/**
+	 * @return number of mocks to create for a List&lt;T&gt;, Map&lt;String, T&gt; or
+	 *         T[] field, all of type T and created together. A Map is keyed by
+	 *         the mock names, which are the field name followed by the index.
+	 *         Leave unset for a field that holds a single mock.
+	 */
+	int size() default 0;
+}
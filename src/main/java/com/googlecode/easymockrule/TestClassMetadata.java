@@ -0,0 +1,242 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import static com.googlecode.easymockrule.InjectionUtils.isUserDefined;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.easymock.internal.MocksControl.MockType;
+
+/**
+ * The annotated fields of a test class, found once per class and shared by
+ * every test in it. Mock fields are listed from the test class up through its
+ * super classes; test subjects are only looked for in the test class itself,
+ * and the constructor for each is chosen against the mocks and the other test
+ * subjects. The mocks followed by the test subjects are the candidates for
+ * constructor arguments.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+public class TestClassMetadata {
+
+	private static final ConcurrentMap<Class<?>, TestClassMetadata> CACHE = new ConcurrentHashMap<Class<?>, TestClassMetadata>();
+
+	private final List<MockField> mockFields = new ArrayList<MockField>();
+
+	private final List<TestSubjectField> testSubjectFields = new ArrayList<TestSubjectField>();
+
+	private final WiringPlan wiringPlan;
+
+	/**
+	 * Get the metadata for the given test class, finding it on first use.
+	 * 
+	 * @param testClass
+	 * @return
+	 */
+	public static TestClassMetadata forClass(Class<?> testClass) {
+
+		TestClassMetadata metadata = CACHE.get(testClass);
+
+		if (metadata == null) {
+			metadata = new TestClassMetadata(testClass);
+			CACHE.putIfAbsent(testClass, metadata);
+		}
+
+		return metadata;
+	}
+
+	/**
+	 * Find the metadata for the given test class, without caching it here.
+	 * 
+	 * @param testClass
+	 */
+	TestClassMetadata(Class<?> testClass) {
+
+		Class<?> currentClass = testClass;
+
+		while (isUserDefined(currentClass)) {
+			findMockFields(currentClass);
+			currentClass = currentClass.getSuperclass();
+		}
+
+		List<Field> candidates = new ArrayList<Field>();
+
+		for (MockField mockField : mockFields) {
+			candidates.add(mockField.getField());
+		}
+
+		for (Field f : testClass.getDeclaredFields()) {
+
+			if (f.isAnnotationPresent(TestSubject.class)) {
+				candidates.add(f);
+			}
+		}
+
+		for (Field f : candidates.subList(mockFields.size(), candidates.size())) {
+			testSubjectFields.add(new TestSubjectField(f, TestSubjectConstructor.resolve(f.getType(), candidates, f, f
+					.getAnnotation(TestSubject.class).useConstructor())));
+		}
+
+		wiringPlan = new WiringPlan(mockFields.size(), testSubjectFields);
+	}
+
+	private void findMockFields(Class<?> currentClass) {
+
+		for (Field f : currentClass.getDeclaredFields()) {
+
+			if (f.isAnnotationPresent(Mock.class)) {
+				mockFields.add(new MockField(f, MockType.DEFAULT, f.getAnnotation(Mock.class).size()));
+				continue;
+			}
+
+			if (f.isAnnotationPresent(NiceMock.class)) {
+				mockFields.add(new MockField(f, MockType.NICE, f.getAnnotation(NiceMock.class).size()));
+				continue;
+			}
+
+			if (f.isAnnotationPresent(StrictMock.class)) {
+				mockFields.add(new MockField(f, MockType.STRICT, f.getAnnotation(StrictMock.class).size()));
+				continue;
+			}
+		}
+	}
+
+	/**
+	 * @return the fields annotated with one of the mock annotations
+	 */
+	public List<MockField> getMockFields() {
+		return Collections.unmodifiableList(mockFields);
+	}
+
+	/**
+	 * @return the fields annotated with &#64;TestSubject
+	 */
+	public List<TestSubjectField> getTestSubjectFields() {
+		return Collections.unmodifiableList(testSubjectFields);
+	}
+
+	/**
+	 * @return how the test subjects are created and wired to each other
+	 */
+	public WiringPlan getWiringPlan() {
+		return wiringPlan;
+	}
+
+	/**
+	 * A field to be set to a mock of the given type, or to a List, Map or
+	 * array of them when a size is given.
+	 */
+	public static class MockField {
+
+		private final Field field;
+
+		private final MockType type;
+
+		private final int size;
+
+		private final Class<?> mockedType;
+
+		MockField(Field field, MockType type, int size) {
+			field.setAccessible(true);
+			this.field = field;
+			this.type = type;
+			this.size = size;
+			this.mockedType = size == 0 ? field.getType() : elementType(field, size);
+		}
+
+		// A sized field must be a List<T>, Map<String, T> or T[], where T is
+		// the mocked type.
+		private static Class<?> elementType(Field field, int size) {
+
+			Class<?> fieldType = field.getType();
+
+			if (size > 0 && fieldType.isArray()) {
+				return fieldType.getComponentType();
+			}
+
+			if (size > 0 && (fieldType == List.class || fieldType == Map.class)
+					&& field.getGenericType() instanceof ParameterizedType) {
+
+				Type[] arguments = ((ParameterizedType) field.getGenericType()).getActualTypeArguments();
+				Type element = arguments[arguments.length - 1];
+
+				if (element instanceof Class && (fieldType == List.class || arguments[0] == String.class)) {
+					return (Class<?>) element;
+				}
+			}
+
+			throw new IllegalStateException("Can't create " + size + " mocks for " + field.getName()
+					+ ", which must be a List<T>, Map<String, T> or T[] of a mockable type T");
+		}
+
+		public Field getField() {
+			return field;
+		}
+
+		public MockType getType() {
+			return type;
+		}
+
+		/**
+		 * @return number of mocks the field holds, or 0 if it holds a single
+		 *         mock
+		 */
+		public int getSize() {
+			return size;
+		}
+
+		/**
+		 * @return the type of the mock or mocks to create
+		 */
+		public Class<?> getMockedType() {
+			return mockedType;
+		}
+	}
+
+	/**
+	 * A field to be set to a test subject, and the constructor to create it
+	 * with if the test hasn't.
+	 */
+	public static class TestSubjectField {
+
+		private final Field field;
+
+		private final TestSubjectConstructor constructor;
+
+		TestSubjectField(Field field, TestSubjectConstructor constructor) {
+			field.setAccessible(true);
+			this.field = field;
+			this.constructor = constructor;
+		}
+
+		public Field getField() {
+			return field;
+		}
+
+		public TestSubjectConstructor getConstructor() {
+			return constructor;
+		}
+	}
+}
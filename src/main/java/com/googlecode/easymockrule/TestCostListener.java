@@ -0,0 +1,55 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import java.io.File;
+
+import org.junit.runner.Result;
+import org.junit.runner.notification.RunListener;
+
+/**
+ * JUnit listener that, when a test run finishes, writes the TestCosts of the
+ * test classes that ran to the file named by the {@value #FILE} system
+ * property, for ForkBalancer to split the classes between forks. Unset, the
+ * listener does nothing, and no costs are collected. Register it with Surefire's "listener" property.
+ * Each fork adds its own classes to the file.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+public class TestCostListener extends RunListener {
+
+	public static final String FILE = "easymockrule.costs";
+
+	private final TestCosts costs;
+
+	public TestCostListener() {
+		this(TestCosts.getInstance());
+	}
+
+	TestCostListener(TestCosts costs) {
+		this.costs = costs;
+	}
+
+	@Override
+	public void testRunFinished(Result result) throws Exception {
+
+		String file = System.getProperty(FILE);
+
+		if (file != null) {
+			costs.write(new File(file));
+		}
+	}
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import com.googlecode.easymockrule.TestClassMetadata.MockField;
+
+/**
+ * What each test class costs to run under the rule: how many mocks of each
+ * kind its fields declare, the time spent creating and injecting them, and the
+ * time its tests take from the start of the rule's setup to the end of its
+ * verification, along with the types it mocks. The costs are written to a
+ * tab separated file with a line per class, which ForkBalancer reads to split
+ * the classes between forks. Costs are only collected when the
+ * {@value TestCostListener#FILE} system property is set.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+public class TestCosts {
+
+	private static final TestCosts INSTANCE = new TestCosts(
+			System.getProperty(TestCostListener.FILE) != null);
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final String HEADER = "# class\ttests\tdefaultMocks\tniceMocks\tstrictMocks\tcreationNanos\ttestNanos\tmockedTypes";
+
+	private final Map<String, ClassCost> costs = new TreeMap<String, ClassCost>();
+
+	private final boolean collecting;
+
+	TestCosts() {
+		this(true);
+	}
+
+	TestCosts(boolean collecting) {
+		this.collecting = collecting;
+	}
+
+	/**
+	 * @return the costs measured in this JVM
+	 */
+	public static TestCosts getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Add the cost of one test.
+	 * 
+	 * @param testClass
+	 * @param metadata
+	 *            the test class's metadata, for the mocks its fields declare
+	 * @param creationNanos
+	 *            time spent creating and injecting the mocks and test subjects
+	 * @param testNanos
+	 *            time the whole test took, including creation
+	 */
+	synchronized void measured(Class<?> testClass, TestClassMetadata metadata, long creationNanos, long testNanos) {
+
+		if (!collecting) {
+			return;
+		}
+
+		ClassCost cost = costs.get(testClass.getName());
+
+		if (cost == null) {
+			cost = new ClassCost(testClass.getName());
+			costs.put(testClass.getName(), cost);
+			cost.countMocks(metadata);
+		}
+
+		cost.tests++;
+		cost.creationNanos += creationNanos;
+		cost.testNanos += testNanos;
+	}
+
+	/**
+	 * @return the costs measured so far, by class name
+	 */
+	public synchronized Map<String, ClassCost> getCosts() {
+
+		Map<String, ClassCost> copy = new TreeMap<String, ClassCost>();
+
+		for (ClassCost cost : costs.values()) {
+			copy.put(cost.getClassName(), ClassCost.parse(cost.toString()));
+		}
+
+		return copy;
+	}
+
+	/**
+	 * Write the costs measured so far to the file, replacing those of the
+	 * classes that were measured and keeping the rest. The file is locked
+	 * while it is rewritten, so forks finishing together can share it.
+	 * 
+	 * @param file
+	 *            costs file, created if it doesn't exist
+	 * @throws IOException
+	 */
+	public void write(File file) throws IOException {
+
+		RandomAccessFile access = new RandomAccessFile(file, "rw");
+
+		try {
+			FileChannel channel = access.getChannel();
+			FileLock lock = channel.lock();
+
+			try {
+				byte[] existing = new byte[(int) channel.size()];
+				channel.read(ByteBuffer.wrap(existing), 0);
+
+				Map<String, ClassCost> merged = parse(new String(existing, UTF_8));
+				merged.putAll(getCosts());
+
+				StringBuilder out = new StringBuilder(HEADER).append('\n');
+
+				for (ClassCost cost : merged.values()) {
+					out.append(cost).append('\n');
+				}
+
+				channel.truncate(0);
+				channel.write(ByteBuffer.wrap(out.toString().getBytes(UTF_8)), 0);
+
+			} finally {
+				lock.release();
+			}
+		} finally {
+			access.close();
+		}
+	}
+
+	/**
+	 * Read a costs file.
+	 * 
+	 * @param file
+	 * @return the costs in the file, by class name, or none if it doesn't exist
+	 * @throws IOException
+	 */
+	public static Map<String, ClassCost> read(File file) throws IOException {
+
+		if (!file.exists()) {
+			return new TreeMap<String, ClassCost>();
+		}
+
+		RandomAccessFile access = new RandomAccessFile(file, "r");
+
+		try {
+			byte[] content = new byte[(int) access.length()];
+			access.readFully(content);
+
+			return parse(new String(content, UTF_8));
+
+		} finally {
+			access.close();
+		}
+	}
+
+	/**
+	 * Forget everything measured so far.
+	 */
+	public synchronized void clear() {
+		costs.clear();
+	}
+
+	private static Map<String, ClassCost> parse(String content) {
+
+		Map<String, ClassCost> parsed = new TreeMap<String, ClassCost>();
+
+		for (String line : content.split("\r?\n")) {
+
+			if (line.trim().length() == 0 || line.startsWith("#")) {
+				continue;
+			}
+
+			ClassCost cost = ClassCost.parse(line);
+			parsed.put(cost.getClassName(), cost);
+		}
+
+		return parsed;
+	}
+
+	/**
+	 * The cost of one test class.
+	 */
+	public static class ClassCost {
+
+		private final String className;
+
+		private final SortedSet<String> mockedTypes = new TreeSet<String>();
+
+		private int tests;
+
+		private int defaultMocks;
+
+		private int niceMocks;
+
+		private int strictMocks;
+
+		private long creationNanos;
+
+		private long testNanos;
+
+		ClassCost(String className) {
+			this.className = className;
+		}
+
+		// A sized field counts each of its mocks. Mocks a test creates for
+		// itself aren't known until it runs, so aren't counted.
+		private void countMocks(TestClassMetadata metadata) {
+
+			for (MockField mockField : metadata.getMockFields()) {
+
+				int count = Math.max(mockField.getSize(), 1);
+
+				switch (mockField.getType()) {
+				case NICE:
+					niceMocks += count;
+					break;
+				case STRICT:
+					strictMocks += count;
+					break;
+				default:
+					defaultMocks += count;
+				}
+
+				mockedTypes.add(mockField.getMockedType().getName());
+			}
+		}
+
+		private static ClassCost parse(String line) {
+
+			String[] columns = line.split("\t", -1);
+
+			if (columns.length != 8) {
+				throw new IllegalArgumentException("Expected 8 tab separated columns: " + line);
+			}
+
+			ClassCost cost = new ClassCost(columns[0]);
+			cost.tests = Integer.parseInt(columns[1]);
+			cost.defaultMocks = Integer.parseInt(columns[2]);
+			cost.niceMocks = Integer.parseInt(columns[3]);
+			cost.strictMocks = Integer.parseInt(columns[4]);
+			cost.creationNanos = Long.parseLong(columns[5]);
+			cost.testNanos = Long.parseLong(columns[6]);
+
+			if (columns[7].length() > 0) {
+				cost.mockedTypes.addAll(Arrays.asList(columns[7].split(",")));
+			}
+
+			return cost;
+		}
+
+		public String getClassName() {
+			return className;
+		}
+
+		/**
+		 * @return the number of tests measured
+		 */
+		public int getTests() {
+			return tests;
+		}
+
+		/**
+		 * @return the number of mocks declared by the class's &#64;Mock
+		 *         fields, counting each mock of a sized field
+		 */
+		public int getDefaultMocks() {
+			return defaultMocks;
+		}
+
+		/**
+		 * @return the number of mocks declared by the class's &#64;NiceMock
+		 *         fields, counting each mock of a sized field
+		 */
+		public int getNiceMocks() {
+			return niceMocks;
+		}
+
+		/**
+		 * @return the number of mocks declared by the class's &#64;StrictMock
+		 *         fields, counting each mock of a sized field
+		 */
+		public int getStrictMocks() {
+			return strictMocks;
+		}
+
+		/**
+		 * @return the total time spent creating mocks and test subjects, in
+		 *         nanoseconds
+		 */
+		public long getCreationNanos() {
+			return creationNanos;
+		}
+
+		/**
+		 * @return the total time taken by the tests, in nanoseconds
+		 */
+		public long getTestNanos() {
+			return testNanos;
+		}
+
+		/**
+		 * @return the names of the types the class's fields mock
+		 */
+		public SortedSet<String> getMockedTypes() {
+			return Collections.unmodifiableSortedSet(mockedTypes);
+		}
+
+		@Override
+		public String toString() {
+
+			StringBuilder types = new StringBuilder();
+
+			for (String type : mockedTypes) {
+				types.append(types.length() == 0 ? "" : ",").append(type);
+			}
+
+			return className + "\t" + tests + "\t" + defaultMocks + "\t" + niceMocks + "\t" + strictMocks + "\t"
+					+ creationNanos + "\t" + testNanos + "\t" + types;
+		}
+	}
+}
@@ -22,11 +22,20 @@ import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
 /**
- * Object into which mocks will be injected.
+ * Object into which mocks will be injected. A test subject the test hasn't
+ * created is created by the rule, as TestSubjectConstructor describes.
  * 
  * @author Alistair Todd <ringracer@gmail.com>
  */
 @Retention(RetentionPolicy.RUNTIME)
 @Target(ElementType.FIELD)
 @Documented
-public @interface TestSubject {}
+public @interface TestSubject {
+
+	/**
+	 * @return true to create the test subject with the greediest constructor
+	 *         the mocks and other test subjects can satisfy, even if it has a
+	 *         no-arg constructor
+	 */
+	boolean useConstructor() default false;
+}
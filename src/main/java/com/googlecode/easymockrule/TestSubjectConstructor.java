@@ -0,0 +1,269 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Parameter;
+import java.lang.reflect.Type;
+import java.util.List;
+
+/**
+ * The constructor used to create a test subject, chosen once per test class.
+ * A test subject with a no-arg constructor is created with it, and has its
+ * fields injected, unless its field asks for constructor injection with
+ * &#64;TestSubject(useConstructor = true). Otherwise the constructor with the
+ * most parameters that can all be satisfied by the test class's mocks and
+ * other test subjects is used. When the subject is compiled with -parameters,
+ * each parameter first takes the candidate whose field has the parameter's
+ * name, if it is assignable. Each remaining parameter takes the first
+ * candidate, mocks first and then test subjects, each in the order their
+ * fields are declared, whose type is exactly the parameter's and that hasn't
+ * already been passed to another parameter, or else the only such candidate
+ * that is assignable to it. A test subject created with arguments then has the
+ * remaining candidates injected into those of its fields that are still empty.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+public class TestSubjectConstructor {
+
+	private final Class<?> subjectType;
+
+	private final Constructor<?> constructor;
+
+	private final int[] argumentIndexes;
+
+	private TestSubjectConstructor(Class<?> subjectType, Constructor<?> constructor, int[] argumentIndexes) {
+		this.subjectType = subjectType;
+		this.constructor = constructor;
+		this.argumentIndexes = argumentIndexes;
+	}
+
+	/**
+	 * Choose the constructor for the given test subject type.
+	 * 
+	 * @param subjectType
+	 * @param candidates
+	 *            the fields whose values can be passed to the constructor, in
+	 *            the order their values will be passed to newInstance
+	 * @param self
+	 *            the test subject's own field, which is never a candidate, or
+	 *            null
+	 * @param useConstructor
+	 *            true to use the greediest constructor even if there is a
+	 *            no-arg constructor
+	 * @return
+	 */
+	public static TestSubjectConstructor resolve(Class<?> subjectType, List<Field> candidates, Field self,
+			boolean useConstructor) {
+
+		Constructor<?> chosen = null;
+		int[] chosenIndexes = null;
+
+		for (Constructor<?> candidate : subjectType.getDeclaredConstructors()) {
+
+			if (!useConstructor && candidate.getParameterTypes().length == 0) {
+				candidate.setAccessible(true);
+				return new TestSubjectConstructor(subjectType, candidate, new int[0]);
+			}
+
+			if (chosen != null && candidate.getParameterTypes().length <= chosen.getParameterTypes().length) {
+				continue;
+			}
+
+			int[] indexes = resolveParameters(parameterTypes(candidate), parameterNames(candidate), candidates, self);
+
+			if (indexes != null) {
+				chosen = candidate;
+				chosenIndexes = indexes;
+			}
+		}
+
+		if (chosen != null) {
+			chosen.setAccessible(true);
+		}
+
+		return new TestSubjectConstructor(subjectType, chosen, chosenIndexes);
+	}
+
+	// Generic parameter types leave out eg an inner class's outer instance.
+	private static Type[] parameterTypes(Constructor<?> constructor) {
+
+		Type[] generic = constructor.getGenericParameterTypes();
+
+		return generic.length == constructor.getParameterTypes().length ? generic : constructor.getParameterTypes();
+	}
+
+	// Names are only known for classes compiled with -parameters.
+	private static String[] parameterNames(Constructor<?> constructor) {
+
+		Parameter[] parameters = constructor.getParameters();
+		String[] names = new String[constructor.getParameterTypes().length];
+
+		if (parameters.length != names.length) {
+			return names;
+		}
+
+		for (int p = 0; p < parameters.length; p++) {
+			if (parameters[p].isNamePresent()) {
+				names[p] = parameters[p].getName();
+			}
+		}
+
+		return names;
+	}
+
+	// Parameters matched by name go first, so that a parameter matched by
+	// type can't take a candidate meant for a later parameter.
+	private static int[] resolveParameters(Type[] parameterTypes, String[] parameterNames, List<Field> candidates,
+			Field self) {
+
+		int[] indexes = new int[parameterTypes.length];
+		boolean[] used = new boolean[candidates.size()];
+
+		for (int p = 0; p < parameterTypes.length; p++) {
+
+			indexes[p] = findNamedCandidate(parameterTypes[p], parameterNames[p], candidates, self);
+
+			if (indexes[p] >= 0) {
+				used[indexes[p]] = true;
+			}
+		}
+
+		for (int p = 0; p < parameterTypes.length; p++) {
+
+			if (indexes[p] >= 0) {
+				continue;
+			}
+
+			indexes[p] = findCandidate(parameterTypes[p], candidates, self, used);
+
+			if (indexes[p] < 0) {
+				return null;
+			}
+
+			used[indexes[p]] = true;
+		}
+
+		return indexes;
+	}
+
+	private static int findNamedCandidate(Type parameterType, String parameterName, List<Field> candidates,
+			Field self) {
+
+		if (parameterName == null) {
+			return -1;
+		}
+
+		for (int c = 0; c < candidates.size(); c++) {
+
+			Field candidate = candidates.get(c);
+
+			if (candidate.getName().equals(parameterName) && !candidate.equals(self)
+					&& InjectionUtils.isAssignable(parameterType, candidate)) {
+				return c;
+			}
+		}
+
+		return -1;
+	}
+
+	// An exact match, or else the only assignable one, so that eg an Object
+	// parameter doesn't take whichever mock happens to be declared first.
+	// Generic types are compared too, so that eg a List<String> parameter
+	// isn't passed a batch of mocks.
+	private static int findCandidate(Type parameterType, List<Field> candidates, Field self, boolean[] used) {
+
+		int assignable = -1;
+		int assignableCount = 0;
+
+		for (int c = 0; c < candidates.size(); c++) {
+
+			Field candidate = candidates.get(c);
+
+			if (used[c] || candidate.equals(self) || !InjectionUtils.isAssignable(parameterType, candidate)) {
+				continue;
+			}
+
+			if (parameterType == candidate.getType() || parameterType.equals(candidate.getGenericType())) {
+				return c;
+			}
+
+			assignable = c;
+			assignableCount++;
+		}
+
+		return assignableCount == 1 ? assignable : -1;
+	}
+
+	/**
+	 * @return true if the chosen constructor takes arguments, in which case
+	 *         only the test subject's empty fields are injected
+	 */
+	public boolean takesArguments() {
+		return argumentIndexes != null && argumentIndexes.length > 0;
+	}
+
+	/**
+	 * @return the indexes of the candidates passed to each of the chosen
+	 *         constructor's parameters, or null if there is no constructor
+	 */
+	int[] getArgumentIndexes() {
+		return argumentIndexes;
+	}
+
+	/**
+	 * Create a test subject, passing it the candidates its constructor needs.
+	 * Exceptions thrown by the constructor are rethrown as they are.
+	 * 
+	 * @param candidates
+	 *            the values of the candidate fields
+	 * @return
+	 * @throws Exception
+	 */
+	public Object newInstance(Object[] candidates) throws Exception {
+
+		if (constructor == null) {
+			throw new IllegalStateException("Can't create test subject " + subjectType.getName()
+					+ ": none of its constructors can be satisfied by the mocks and test subjects in the test class");
+		}
+
+		Object[] args = new Object[argumentIndexes.length];
+
+		for (int i = 0; i < args.length; i++) {
+			args[i] = candidates[argumentIndexes[i]];
+		}
+
+		try {
+			return constructor.newInstance(args);
+
+		} catch (InvocationTargetException e) {
+
+			Throwable cause = e.getCause();
+
+			if (cause instanceof Exception) {
+				throw (Exception) cause;
+			}
+
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+
+			throw e;
+		}
+	}
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.easymock.internal.AssertionErrorWrapper;
+
+/**
+ * The calls that the mocks of one MockManager have rejected as unexpected or
+ * over their limit, shared by all of its controls. In fail fast mode the first
+ * one aborts the test: any further call to any of the mocks fails with the
+ * same error, and the test's thread is interrupted if the call was made on
+ * another thread, so that a long test doesn't run on once it has failed. Uses
+ * a Lock rather than synchronized, so that a call rejected on a virtual thread
+ * doesn't pin its carrier thread, as ReplayState already does for the calls
+ * themselves.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+class UnexpectedCalls {
+
+	private final Lock lock = new ReentrantLock();
+
+	private final List<AssertionError> calls = new ArrayList<AssertionError>();
+
+	private Thread testThread;
+
+	// Whether we interrupted the test thread, and so should clear it after.
+	private boolean interrupted;
+
+	// Read on every call to every mock, so kept out of the lock.
+	private volatile AssertionError abortedBy;
+
+	/**
+	 * Abort the test on the first unexpected call.
+	 * 
+	 * @param testThread
+	 *            the thread running the test
+	 */
+	void failFast(Thread testThread) {
+
+		lock.lock();
+		try {
+			this.testThread = testThread;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	void log(AssertionError call) {
+
+		lock.lock();
+		try {
+			calls.add(call);
+
+			if (testThread != null && abortedBy == null) {
+				abortedBy = call;
+
+				if (testThread != Thread.currentThread()) {
+					testThread.interrupt();
+					interrupted = true;
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * In fail fast mode, reject every call once one has been unexpected.
+	 */
+	void assertNotAborted() {
+
+		AssertionError first = abortedBy;
+
+		if (first != null) {
+			throw new AssertionErrorWrapper(first);
+		}
+	}
+
+	/**
+	 * Fail if any call has been unexpected so far.
+	 */
+	void assertNone() {
+
+		lock.lock();
+		try {
+			if (calls.isEmpty()) {
+				return;
+			}
+
+			StringBuffer message = new StringBuffer();
+			message.append(calls.size()).append(calls.size() == 1 ? " unexpected call" : " unexpected calls")
+					.append(" so far:");
+
+			for (AssertionError call : calls) {
+				message.append(call.getMessage());
+			}
+
+			AssertionError failed = new AssertionError(message.toString());
+			failed.initCause(calls.get(0));
+			throw failed;
+
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Forget the calls, and clear the interrupt we gave the test thread, if
+	 * this is it, so that it doesn't carry over to the next test.
+	 */
+	void clear() {
+
+		lock.lock();
+		try {
+			if (interrupted && testThread == Thread.currentThread()) {
+				Thread.interrupted();
+			}
+
+			calls.clear();
+			testThread = null;
+			interrupted = false;
+			abortedBy = null;
+		} finally {
+			lock.unlock();
+		}
+	}
+}
@@ -0,0 +1,542 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableScheduledFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A ScheduledExecutorService whose time only moves when the test advances it.
+ * Nothing runs on a thread of its own: tasks run on the thread that calls
+ * advance, in the order they fall due, and the clock reads the time of the
+ * task being run, so timeouts, retries and backoff run instantly and in the
+ * same order every time. Tasks submitted to run now wait for the next advance,
+ * or runDueTasks. The clock starts at 0, which getClock shows as the epoch,
+ * for code that takes a java.time.Clock.
+ * <p>
+ * So a test mustn't wait on a task it hasn't run: calling get on a submitted
+ * or scheduled task's future from the thread that advances the clock waits
+ * forever. Advance first, then get. invokeAll and invokeAny, which would have
+ * to wait, run their tasks on the calling thread instead, there and then.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+public class VirtualTimeScheduler extends AbstractExecutorService implements ScheduledExecutorService {
+
+	private final Lock lock = new ReentrantLock();
+
+	private final PriorityQueue<VirtualTask<?>> queue = new PriorityQueue<VirtualTask<?>>();
+
+	private long now;
+
+	private long sequence;
+
+	private boolean shutdown;
+
+	/**
+	 * @return the virtual time in nanoseconds, for use in place of
+	 *         System.nanoTime
+	 */
+	public long nanoTime() {
+
+		lock.lock();
+		try {
+			return now;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the virtual time in milliseconds, for use in place of
+	 *         System.currentTimeMillis
+	 */
+	public long currentTimeMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(nanoTime());
+	}
+
+	/**
+	 * @return a Clock in UTC that reads the virtual time, as an instant that
+	 *         many nanoseconds after the epoch, for use in place of
+	 *         Clock.systemUTC
+	 */
+	public Clock getClock() {
+		return new VirtualClock(ZoneOffset.UTC);
+	}
+
+	/**
+	 * Move the clock forward, running every task that falls due on the way, in
+	 * order, including any that those tasks schedule within the time.
+	 * 
+	 * @param time
+	 * @param unit
+	 * @return the number of tasks run
+	 */
+	public int advance(long time, TimeUnit unit) {
+
+		if (time < 0) {
+			throw new IllegalArgumentException("Time can't go backwards, by " + time + " " + unit);
+		}
+
+		long target;
+
+		lock.lock();
+		try {
+			target = now + unit.toNanos(time);
+		} finally {
+			lock.unlock();
+		}
+
+		int run = 0;
+
+		for (VirtualTask<?> task = nextDue(target); task != null; task = nextDue(target)) {
+			task.run();
+			run++;
+		}
+
+		lock.lock();
+		try {
+			now = Math.max(now, target);
+		} finally {
+			lock.unlock();
+		}
+
+		return run;
+	}
+
+	/**
+	 * Run the tasks that are due now, without moving the clock.
+	 * 
+	 * @return the number of tasks run
+	 */
+	public int runDueTasks() {
+		return advance(0, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @return the number of tasks waiting to run
+	 */
+	public int getPendingTasks() {
+
+		lock.lock();
+		try {
+			return queue.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private VirtualTask<?> nextDue(long target) {
+
+		lock.lock();
+		try {
+			VirtualTask<?> task = queue.peek();
+
+			if (task == null || task.time > target) {
+				return null;
+			}
+
+			now = Math.max(now, task.time);
+			return queue.poll();
+
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		schedule(command, 0, TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+		return enqueue(new VirtualTask<Object>(command, null, unit.toNanos(delay), 0));
+	}
+
+	@Override
+	public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+		return enqueue(new VirtualTask<V>(callable, unit.toNanos(delay)));
+	}
+
+	@Override
+	public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+
+		if (period <= 0) {
+			throw new IllegalArgumentException("Period must be positive, not " + period);
+		}
+
+		return enqueue(new VirtualTask<Object>(command, null, unit.toNanos(initialDelay), unit.toNanos(period)));
+	}
+
+	@Override
+	public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+
+		if (delay <= 0) {
+			throw new IllegalArgumentException("Delay must be positive, not " + delay);
+		}
+
+		return enqueue(new VirtualTask<Object>(command, null, unit.toNanos(initialDelay), -unit.toNanos(delay)));
+	}
+
+	/**
+	 * Run the tasks on the calling thread, in order, without moving the clock.
+	 */
+	@Override
+	public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks) {
+
+		checkNotShutdown();
+
+		List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+
+		for (Callable<T> task : tasks) {
+			FutureTask<T> future = new FutureTask<T>(task);
+			future.run();
+			futures.add(future);
+		}
+
+		return futures;
+	}
+
+	/**
+	 * As invokeAll, since the tasks take no virtual time and so always finish
+	 * within the timeout.
+	 */
+	@Override
+	public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit) {
+		return invokeAll(tasks);
+	}
+
+	/**
+	 * Run the tasks on the calling thread, in order, until one succeeds.
+	 */
+	@Override
+	public <T> T invokeAny(Collection<? extends Callable<T>> tasks) throws ExecutionException {
+
+		checkNotShutdown();
+
+		if (tasks.isEmpty()) {
+			throw new IllegalArgumentException("No tasks to invoke");
+		}
+
+		Exception failure = null;
+
+		for (Callable<T> task : tasks) {
+			try {
+				return task.call();
+
+			} catch (Exception e) {
+				failure = e;
+			}
+		}
+
+		throw new ExecutionException(failure);
+	}
+
+	/**
+	 * As invokeAny, since the tasks take no virtual time and so always finish
+	 * within the timeout.
+	 */
+	@Override
+	public <T> T invokeAny(Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit)
+			throws ExecutionException {
+		return invokeAny(tasks);
+	}
+
+	private void checkNotShutdown() {
+
+		if (isShutdown()) {
+			throw new RejectedExecutionException("Scheduler has been shut down");
+		}
+	}
+
+	private <V> VirtualTask<V> enqueue(VirtualTask<V> task) {
+
+		lock.lock();
+		try {
+			if (shutdown) {
+				throw new RejectedExecutionException("Scheduler has been shut down");
+			}
+
+			queue.add(task);
+			return task;
+
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Stop accepting tasks and cancel the periodic ones. Delayed tasks already
+	 * scheduled still run as time advances.
+	 */
+	@Override
+	public void shutdown() {
+
+		List<VirtualTask<?>> periodic = new ArrayList<VirtualTask<?>>();
+
+		lock.lock();
+		try {
+			shutdown = true;
+
+			for (VirtualTask<?> task : queue) {
+				if (task.isPeriodic()) {
+					periodic.add(task);
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+
+		for (VirtualTask<?> task : periodic) {
+			task.cancel(false);
+		}
+	}
+
+	@Override
+	public List<Runnable> shutdownNow() {
+
+		List<Runnable> pending;
+
+		lock.lock();
+		try {
+			shutdown = true;
+			pending = new ArrayList<Runnable>(queue);
+			queue.clear();
+		} finally {
+			lock.unlock();
+		}
+
+		for (Runnable task : pending) {
+			((VirtualTask<?>) task).cancel(false);
+		}
+
+		return pending;
+	}
+
+	@Override
+	public boolean isShutdown() {
+
+		lock.lock();
+		try {
+			return shutdown;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public boolean isTerminated() {
+
+		lock.lock();
+		try {
+			return shutdown && queue.isEmpty();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Waiting doesn't make virtual time pass, so this only says whether the
+	 * scheduler has already terminated.
+	 */
+	@Override
+	public boolean awaitTermination(long timeout, TimeUnit unit) {
+		return isTerminated();
+	}
+
+	/**
+	 * The virtual time seen as a Clock, in any zone.
+	 */
+	private class VirtualClock extends Clock {
+
+		private final ZoneId zone;
+
+		VirtualClock(ZoneId zone) {
+			this.zone = zone;
+		}
+
+		@Override
+		public ZoneId getZone() {
+			return zone;
+		}
+
+		@Override
+		public Clock withZone(ZoneId zone) {
+			return zone.equals(this.zone) ? this : new VirtualClock(zone);
+		}
+
+		@Override
+		public long millis() {
+			return currentTimeMillis();
+		}
+
+		@Override
+		public Instant instant() {
+			return Instant.ofEpochSecond(0, nanoTime());
+		}
+
+		@Override
+		public boolean equals(Object other) {
+
+			if (!(other instanceof VirtualClock)) {
+				return false;
+			}
+
+			VirtualClock clock = (VirtualClock) other;
+
+			return clock.scheduler() == scheduler() && clock.zone.equals(zone);
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(scheduler()) ^ zone.hashCode();
+		}
+
+		private VirtualTimeScheduler scheduler() {
+			return VirtualTimeScheduler.this;
+		}
+
+		@Override
+		public String toString() {
+			return "VirtualClock[" + zone + "]";
+		}
+	}
+
+	/**
+	 * A task due at a virtual time. Periodic tasks are queued again after each
+	 * run: at a fixed rate from the time they were due, or with a fixed delay
+	 * from the time they ran, which is the same time in virtual time unless a
+	 * task advances the clock itself.
+	 */
+	private class VirtualTask<V> extends FutureTask<V> implements RunnableScheduledFuture<V> {
+
+		private final long period;
+
+		private final long sequenceNumber;
+
+		private long time;
+
+		VirtualTask(Runnable command, V result, long delay, long period) {
+			super(command, result);
+			this.period = period;
+			this.sequenceNumber = due(delay);
+		}
+
+		VirtualTask(Callable<V> callable, long delay) {
+			super(callable);
+			this.period = 0;
+			this.sequenceNumber = due(delay);
+		}
+
+		private long due(long delay) {
+
+			lock.lock();
+			try {
+				time = now + Math.max(delay, 0);
+				return sequence++;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public boolean isPeriodic() {
+			return period != 0;
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(time - nanoTime(), TimeUnit.NANOSECONDS);
+		}
+
+		// Tasks due at the same time run in the order they were scheduled.
+		@Override
+		public int compareTo(Delayed other) {
+
+			if (other instanceof VirtualTask) {
+
+				VirtualTask<?> task = (VirtualTask<?>) other;
+
+				if (time != task.time) {
+					return time < task.time ? -1 : 1;
+				}
+
+				return sequenceNumber < task.sequenceNumber ? -1 : sequenceNumber == task.sequenceNumber ? 0 : 1;
+			}
+
+			long difference = getDelay(TimeUnit.NANOSECONDS) - other.getDelay(TimeUnit.NANOSECONDS);
+
+			return difference < 0 ? -1 : difference == 0 ? 0 : 1;
+		}
+
+		@Override
+		public void run() {
+
+			if (!isPeriodic()) {
+				super.run();
+				return;
+			}
+
+			if (runAndReset()) {
+
+				lock.lock();
+				try {
+					if (!shutdown) {
+						time = period > 0 ? time + period : now - period;
+						queue.add(this);
+					}
+				} finally {
+					lock.unlock();
+				}
+			}
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+
+			boolean cancelled = super.cancel(mayInterruptIfRunning);
+
+			lock.lock();
+			try {
+				queue.remove(this);
+			} finally {
+				lock.unlock();
+			}
+
+			return cancelled;
+		}
+	}
+}
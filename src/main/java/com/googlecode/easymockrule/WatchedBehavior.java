@@ -0,0 +1,294 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.easymock.ArgumentsMatcher;
+import org.easymock.internal.AssertionErrorWrapper;
+import org.easymock.internal.ExpectedInvocation;
+import org.easymock.internal.ExpectedInvocationAndResults;
+import org.easymock.internal.IMocksBehavior;
+import org.easymock.internal.Invocation;
+import org.easymock.internal.MocksBehavior;
+import org.easymock.internal.MocksControl;
+import org.easymock.internal.Range;
+import org.easymock.internal.Result;
+import org.easymock.internal.Results;
+import org.easymock.internal.UnorderedBehavior;
+
+/**
+ * Sits in front of a control's behavior, which sees every call the control's
+ * replay state accepts, to keep the most recent calls and to log the calls
+ * that EasyMock rejects as unexpected or over their limit, whether or not the
+ * code under test lets the AssertionError through.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+class WatchedBehavior implements IMocksBehavior {
+
+	private static final Field BEHAVIOR = field(MocksControl.class, "behavior");
+
+	private static final Field BEHAVIOR_LISTS = field(MocksBehavior.class, "behaviorLists");
+
+	private static final Field RESULTS = field(UnorderedBehavior.class, "results");
+
+	private static final Field RANGES = field(Results.class, "ranges");
+
+	private final IMocksBehavior delegate;
+
+	private final UnexpectedCalls unexpectedCalls;
+
+	private RecentCalls recentCalls;
+
+	private Map<Results, List<Range>> recordedRanges;
+
+	private WatchedBehavior(IMocksBehavior delegate, UnexpectedCalls unexpectedCalls) {
+		this.delegate = delegate;
+		this.unexpectedCalls = unexpectedCalls;
+	}
+
+	/**
+	 * Start watching the calls made to the mocks of the given control. Must be
+	 * called before the control is replayed, and lasts until it is reset.
+	 * 
+	 * @param control
+	 * @param unexpectedCalls
+	 *            where to log rejected calls
+	 * @return the control's WatchedBehavior
+	 */
+	static WatchedBehavior watch(MocksControl control, UnexpectedCalls unexpectedCalls) {
+
+		try {
+			IMocksBehavior behavior = (IMocksBehavior) BEHAVIOR.get(control);
+
+			if (behavior instanceof WatchedBehavior) {
+				return (WatchedBehavior) behavior;
+			}
+
+			WatchedBehavior watched = new WatchedBehavior(behavior, unexpectedCalls);
+			BEHAVIOR.set(control, watched);
+
+			return watched;
+
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException("Can't watch calls to " + control, e);
+		}
+	}
+
+	private static Field field(Class<?> type, String name) {
+
+		try {
+			Field f = type.getDeclaredField(name);
+			f.setAccessible(true);
+			return f;
+
+		} catch (NoSuchFieldException e) {
+			throw new IllegalStateException("Unsupported EasyMock version", e);
+		}
+	}
+
+	/**
+	 * Get the expectations recorded so far on the given control, whether or
+	 * not it is watched, for reading rather than changing.
+	 * 
+	 * @param control
+	 * @return the control's expectations, in the order they were recorded
+	 */
+	@SuppressWarnings("unchecked")
+	static List<ExpectedInvocationAndResults> expectations(MocksControl control) {
+
+		try {
+			IMocksBehavior behavior = (IMocksBehavior) BEHAVIOR.get(control);
+
+			if (behavior instanceof WatchedBehavior) {
+				behavior = ((WatchedBehavior) behavior).delegate;
+			}
+
+			List<ExpectedInvocationAndResults> expectations = new ArrayList<ExpectedInvocationAndResults>();
+
+			for (UnorderedBehavior unordered : (List<UnorderedBehavior>) BEHAVIOR_LISTS.get(behavior)) {
+				expectations.addAll((List<ExpectedInvocationAndResults>) RESULTS.get(unordered));
+			}
+
+			return expectations;
+
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException("Can't read the expectations of " + control, e);
+		}
+	}
+
+	/**
+	 * @param results
+	 * @return the ranges of calls expected for the given results, as recorded
+	 *         or scaled
+	 */
+	@SuppressWarnings("unchecked")
+	static List<Range> ranges(Results results) {
+
+		try {
+			return (List<Range>) RANGES.get(results);
+
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException("Can't read the expected calls of " + results, e);
+		}
+	}
+
+	/**
+	 * Keep the last few calls from now on.
+	 * 
+	 * @param recentCalls
+	 */
+	void keepRecentCalls(RecentCalls recentCalls) {
+		this.recentCalls = recentCalls;
+	}
+
+	/**
+	 * Describe the kept calls, if any are being kept.
+	 * 
+	 * @param message
+	 *            to append the description to
+	 */
+	void describeRecentCalls(StringBuffer message) {
+
+		if (recentCalls != null) {
+			recentCalls.describeTo(message);
+		}
+	}
+
+	/**
+	 * Multiply the number of calls expected by each expectation recorded so
+	 * far by the given factor, so that expectations recorded for one run of a
+	 * test cover many runs. The factor always applies to the counts as they
+	 * were recorded, however many times this is called. Open ended counts
+	 * such as anyTimes stay open, and stubs are left alone.
+	 * 
+	 * @param factor
+	 *            at least 1
+	 */
+	@SuppressWarnings("unchecked")
+	void scaleExpectations(int factor) {
+
+		try {
+			if (recordedRanges == null) {
+				recordedRanges = recordRanges();
+			}
+
+			for (Map.Entry<Results, List<Range>> recorded : recordedRanges.entrySet()) {
+
+				List<Range> ranges = (List<Range>) RANGES.get(recorded.getKey());
+				ranges.clear();
+
+				for (Range range : recorded.getValue()) {
+					ranges.add(new Range(scale(range.getMinimum(), factor), scale(range.getMaximum(), factor)));
+				}
+			}
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException("Can't scale the expectations of " + delegate, e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<Results, List<Range>> recordRanges() throws IllegalAccessException {
+
+		Map<Results, List<Range>> recorded = new IdentityHashMap<Results, List<Range>>();
+
+		for (UnorderedBehavior behavior : (List<UnorderedBehavior>) BEHAVIOR_LISTS.get(delegate)) {
+			for (ExpectedInvocationAndResults expected : (List<ExpectedInvocationAndResults>) RESULTS.get(behavior)) {
+				recorded.put(expected.getResults(), new ArrayList<Range>((List<Range>) RANGES.get(expected.getResults())));
+			}
+		}
+
+		return recorded;
+	}
+
+	private static int scale(int count, int factor) {
+		return (int) Math.min((long) count * factor, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public Result addActual(Invocation actual) {
+
+		unexpectedCalls.assertNotAborted();
+
+		if (recentCalls != null) {
+			recentCalls.record(actual);
+		}
+
+		try {
+			return delegate.addActual(actual);
+
+		} catch (AssertionErrorWrapper e) {
+			unexpectedCalls.log(e.getAssertionError());
+			throw e;
+		}
+	}
+
+	@Override
+	public void addExpected(ExpectedInvocation expected, Result result, Range count) {
+		delegate.addExpected(expected, result, count);
+	}
+
+	@Override
+	public void addStub(ExpectedInvocation expected, Result result) {
+		delegate.addStub(expected, result);
+	}
+
+	@Override
+	public void checkOrder(boolean value) {
+		delegate.checkOrder(value);
+	}
+
+	@Override
+	public void makeThreadSafe(boolean isThreadSafe) {
+		delegate.makeThreadSafe(isThreadSafe);
+	}
+
+	@Override
+	public void shouldBeUsedInOneThread(boolean shouldBeUsedInOneThread) {
+		delegate.shouldBeUsedInOneThread(shouldBeUsedInOneThread);
+	}
+
+	@Override
+	public boolean isThreadSafe() {
+		return delegate.isThreadSafe();
+	}
+
+	@Override
+	public void checkThreadSafety() {
+		delegate.checkThreadSafety();
+	}
+
+	@Override
+	public void verify() {
+		delegate.verify();
+	}
+
+	@Override
+	public void setDefaultMatcher(ArgumentsMatcher matcher) {
+		delegate.setDefaultMatcher(matcher);
+	}
+
+	@Override
+	public void setMatcher(Method method, ArgumentsMatcher matcher) {
+		delegate.setMatcher(method, matcher);
+	}
+}
@@ -0,0 +1,332 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import static com.googlecode.easymockrule.InjectionUtils.isUserDefined;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.googlecode.easymockrule.TestClassMetadata.TestSubjectField;
+
+/**
+ * How the test subjects of a test class are created and wired to each other,
+ * worked out once per class from the declared types. Test subjects are
+ * created in an order where every test subject passed to a constructor has
+ * already been created, and each test subject is then injected into the
+ * fields of every other test subject that has a field for it, by name and
+ * then by type, preferring a field of its own type to one of a supertype, and
+ * that to a field declared as Object. Static and final fields are never
+ * wired, and a field that already holds a mock or value is left alone. Test
+ * subjects that need each other through their constructors can't be created,
+ * and the plan describes the cycle.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+public class WiringPlan {
+
+	private final int firstTestSubject;
+
+	private final List<TestSubjectField> testSubjects;
+
+	private final int[] creationOrder;
+
+	private final boolean[] inCycle;
+
+	private final String cycle;
+
+	private final List<SubjectWiring> subjectWirings = new ArrayList<SubjectWiring>();
+
+	/**
+	 * Plan the wiring for the given test subjects.
+	 * 
+	 * @param firstTestSubject
+	 *            index of the first test subject among the constructor
+	 *            candidates, which are the mocks followed by the test subjects
+	 * @param testSubjects
+	 */
+	WiringPlan(int firstTestSubject, List<TestSubjectField> testSubjects) {
+
+		this.firstTestSubject = firstTestSubject;
+		this.testSubjects = testSubjects;
+		this.creationOrder = new int[testSubjects.size()];
+		this.inCycle = new boolean[testSubjects.size()];
+		this.cycle = orderCreation();
+
+		planSubjectWirings();
+	}
+
+	// Repeatedly take the first test subject, in declaration order, whose
+	// constructor only needs test subjects that have already been taken.
+	private String orderCreation() {
+
+		int size = testSubjects.size();
+		boolean[] created = new boolean[size];
+		int count = 0;
+
+		while (count < size) {
+
+			int next = -1;
+
+			for (int i = 0; i < size && next < 0; i++) {
+				if (!created[i] && dependenciesCreated(i, created)) {
+					next = i;
+				}
+			}
+
+			if (next < 0) {
+				break;
+			}
+
+			created[next] = true;
+			creationOrder[count++] = next;
+		}
+
+		if (count == size) {
+			return null;
+		}
+
+		// The rest depend on each other, leave them to fail when created
+		for (int i = 0; i < size; i++) {
+			if (!created[i]) {
+				inCycle[i] = true;
+				creationOrder[count++] = i;
+			}
+		}
+
+		return describeCycle(created);
+	}
+
+	private boolean dependenciesCreated(int subject, boolean[] created) {
+
+		for (int dependency : constructorDependencies(subject)) {
+			if (!created[dependency]) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private List<Integer> constructorDependencies(int subject) {
+
+		int[] argumentIndexes = testSubjects.get(subject).getConstructor().getArgumentIndexes();
+
+		if (argumentIndexes == null) {
+			return Collections.emptyList();
+		}
+
+		List<Integer> dependencies = new ArrayList<Integer>();
+
+		for (int index : argumentIndexes) {
+			if (index >= firstTestSubject) {
+				dependencies.add(index - firstTestSubject);
+			}
+		}
+
+		return dependencies;
+	}
+
+	// Follow uncreated dependencies from an uncreated test subject until one
+	// repeats.
+	private String describeCycle(boolean[] created) {
+
+		List<Integer> path = new ArrayList<Integer>();
+		int current = 0;
+
+		while (created[current]) {
+			current++;
+		}
+
+		while (!path.contains(current)) {
+
+			path.add(current);
+
+			for (int dependency : constructorDependencies(current)) {
+				if (!created[dependency]) {
+					current = dependency;
+					break;
+				}
+			}
+		}
+
+		StringBuilder description = new StringBuilder(
+				"Test subjects depend on each other through their constructors: ");
+
+		for (int i = path.indexOf(current); i < path.size(); i++) {
+			description.append(describe(path.get(i))).append(" -> ");
+		}
+
+		return description.append(describe(current)).toString();
+	}
+
+	private String describe(int subject) {
+
+		Field field = testSubjects.get(subject).getField();
+
+		return field.getName() + " (" + field.getType().getName() + ")";
+	}
+
+	private void planSubjectWirings() {
+
+		for (int target = 0; target < testSubjects.size(); target++) {
+			for (int source = 0; source < testSubjects.size(); source++) {
+
+				if (source == target) {
+					continue;
+				}
+
+				Field targetField = findTargetField(testSubjects.get(target).getField().getType(), testSubjects
+						.get(source).getField());
+
+				if (targetField != null) {
+					subjectWirings.add(new SubjectWiring(target, targetField, source));
+				}
+			}
+		}
+	}
+
+	// A field of the source's name, or else the closest by type: the source's
+	// own type, then a supertype, then Object, in declaration order.
+	private Field findTargetField(Class<?> targetType, Field source) {
+
+		Field byType = null;
+		int byTypeCloseness = 0;
+
+		for (Class<?> c = targetType; isUserDefined(c); c = c.getSuperclass()) {
+			for (Field f : c.getDeclaredFields()) {
+
+				if ((f.getModifiers() & (Modifier.STATIC | Modifier.FINAL)) != 0
+						|| !f.getType().isAssignableFrom(source.getType()) || !accessible(f)) {
+					continue;
+				}
+
+				if (f.getName().equals(source.getName())) {
+					return f;
+				}
+
+				int closeness = f.getType() == source.getType() ? 3 : f.getType() == Object.class ? 1 : 2;
+
+				if (closeness > byTypeCloseness) {
+					byType = f;
+					byTypeCloseness = closeness;
+				}
+			}
+		}
+
+		return byType;
+	}
+
+	// Fields that can't be made accessible, such as those of a JDK class the
+	// target extends, are passed over.
+	private boolean accessible(Field f) {
+
+		try {
+			f.setAccessible(true);
+			return true;
+
+		} catch (RuntimeException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return the index of each test subject, in the order to create them
+	 */
+	public int[] getCreationOrder() {
+		return creationOrder.clone();
+	}
+
+	/**
+	 * Check that the given test subject can be created.
+	 * 
+	 * @param subject
+	 *            index of the test subject
+	 * @throws IllegalStateException
+	 *             describing the cycle the test subject is part of or depends
+	 *             on
+	 */
+	public void assertCreatable(int subject) {
+
+		if (inCycle[subject]) {
+			throw new IllegalStateException(cycle);
+		}
+	}
+
+	/**
+	 * @return description of test subjects that depend on each other through
+	 *         their constructors, or null if there are none
+	 */
+	public String getCycle() {
+		return cycle;
+	}
+
+	/**
+	 * @return the test subject to test subject field injections
+	 */
+	public List<SubjectWiring> getSubjectWirings() {
+		return Collections.unmodifiableList(subjectWirings);
+	}
+
+	/**
+	 * Injection of one test subject into a field of another.
+	 */
+	public static class SubjectWiring {
+
+		private final int target;
+
+		private final Field field;
+
+		private final int source;
+
+		SubjectWiring(int target, Field field, int source) {
+			this.target = target;
+			this.field = field;
+			this.source = source;
+		}
+
+		public int getTarget() {
+			return target;
+		}
+
+		public int getSource() {
+			return source;
+		}
+
+		/**
+		 * Inject the source test subject into the target, unless the field
+		 * already holds something. As with any injection by type, a field
+		 * that can't be set is left as it is.
+		 * 
+		 * @param testSubjects
+		 *            test subjects in declaration order
+		 */
+		public void wire(Object[] testSubjects) {
+
+			try {
+				if (field.get(testSubjects[target]) == null) {
+					field.set(testSubjects[target], testSubjects[source]);
+				}
+
+			} catch (IllegalAccessException e) {
+				// Left unwired
+			}
+		}
+	}
+}
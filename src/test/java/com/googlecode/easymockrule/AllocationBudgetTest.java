@@ -0,0 +1,263 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Properties;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+import com.googlecode.easymockrule.EasyMockRuleTest.ClassMock;
+import com.googlecode.easymockrule.EasyMockRuleTest.InterfaceMock;
+import com.googlecode.easymockrule.EasyMockRuleTest.WiredByTypeMock;
+import com.googlecode.easymockrule.EasyMockRuleTest.WiredInTestSubjectSuperClassByTypeMock;
+import com.googlecode.easymockrule.EasyMockRuleTest.WiredInTestSubjectSuperClassMock;
+
+/**
+ * Checks the bytes allocated by a complete rule cycle - create, inject, replay,
+ * verify and release - for a few representative test classes against the
+ * budgets in allocation-budgets.properties. The budgets are roughly twice what
+ * was measured when they were set, to leave room for differences between JVMs;
+ * if a change legitimately needs more, raise the budget in the same commit and
+ * say why.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+public class AllocationBudgetTest {
+
+	private static final String BUDGETS = "/allocation-budgets.properties";
+
+	private static final int WARM_UP_CYCLES = 200;
+
+	private static final int MEASURED_CYCLES = 100;
+
+	private static final Properties budgets = new Properties();
+
+	private static com.sun.management.ThreadMXBean threads;
+
+	@BeforeClass
+	public static void loadBudgets() throws Exception {
+
+		ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+		assumeTrue(threadMXBean instanceof com.sun.management.ThreadMXBean);
+
+		threads = (com.sun.management.ThreadMXBean) threadMXBean;
+
+		assumeTrue(threads.isThreadAllocatedMemorySupported());
+
+		threads.setThreadAllocatedMemoryEnabled(true);
+
+		InputStream in = AllocationBudgetTest.class.getResourceAsStream(BUDGETS);
+		try {
+			budgets.load(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	@Test
+	public void interfaceMocksShouldStayWithinBudget() throws Throwable {
+		assertWithinBudget(InterfaceMocks.class);
+	}
+
+	@Test
+	public void classMocksShouldStayWithinBudget() throws Throwable {
+		assertWithinBudget(ClassMocks.class);
+	}
+
+	@Test
+	public void deepTestSubjectShouldStayWithinBudget() throws Throwable {
+		assertWithinBudget(DeepTestSubject.class);
+	}
+
+	@Test
+	public void manyMocksShouldStayWithinBudget() throws Throwable {
+		assertWithinBudget(ManyMocks.class);
+	}
+
+	private void assertWithinBudget(Class<?> testClass) throws Throwable {
+
+		long budget = Long.parseLong(budgets.getProperty(testClass.getSimpleName()));
+
+		for (int i = 0; i < WARM_UP_CYCLES; i++) {
+			runCycle(testClass);
+		}
+
+		long threadId = Thread.currentThread().getId();
+		long before = threads.getThreadAllocatedBytes(threadId);
+
+		for (int i = 0; i < MEASURED_CYCLES; i++) {
+			runCycle(testClass);
+		}
+
+		long perCycle = (threads.getThreadAllocatedBytes(threadId) - before) / MEASURED_CYCLES;
+
+		assertTrue(testClass.getSimpleName() + " allocated " + perCycle + " bytes per test, budget is " + budget,
+				perCycle <= budget);
+	}
+
+	private void runCycle(Class<?> testClass) throws Throwable {
+
+		Object test = testClass.newInstance();
+		final EasyMockRule rule = new EasyMockRule(test);
+
+		rule.apply(new Statement() {
+			@Override
+			public void evaluate() throws Throwable {
+				rule.replayAll();
+			}
+		}, Description.EMPTY).evaluate();
+	}
+
+	/**
+	 * Interface mocks wired into the usual test subject.
+	 */
+	public static class InterfaceMocks {
+
+		@Mock
+		private InterfaceMock interfaceMock;
+
+		@StrictMock
+		private WiredByTypeMock wiredByTypeMock;
+
+		@NiceMock
+		private WiredInTestSubjectSuperClassMock wiredInTestSubjectSuperClassMock;
+
+		@Mock
+		private WiredInTestSubjectSuperClassByTypeMock wiredInTestSubjectSuperClassByTypeMock;
+
+		@TestSubject
+		private EasyMockTestSubject testSubject;
+	}
+
+	/**
+	 * Class mocks wired into the usual test subject.
+	 */
+	public static class ClassMocks {
+
+		@Mock
+		private ClassMock classMock;
+
+		@NiceMock
+		private ClassMock anotherClassMock;
+
+		@TestSubject
+		private EasyMockTestSubject testSubject;
+	}
+
+	/**
+	 * Mocks wired by name through five levels of test subject super classes.
+	 */
+	public static class DeepTestSubject {
+
+		@Mock
+		private InterfaceMock level1;
+
+		@Mock
+		private InterfaceMock level2;
+
+		@Mock
+		private InterfaceMock level3;
+
+		@Mock
+		private InterfaceMock level4;
+
+		@Mock
+		private InterfaceMock level5;
+
+		@TestSubject
+		private Level5 testSubject;
+	}
+
+	/**
+	 * Lots of mocks and no test subject.
+	 */
+	public static class ManyMocks {
+
+		@Mock
+		private InterfaceMock mock1;
+		@Mock
+		private InterfaceMock mock2;
+		@Mock
+		private InterfaceMock mock3;
+		@Mock
+		private InterfaceMock mock4;
+		@Mock
+		private InterfaceMock mock5;
+		@NiceMock
+		private InterfaceMock mock6;
+		@NiceMock
+		private InterfaceMock mock7;
+		@NiceMock
+		private InterfaceMock mock8;
+		@NiceMock
+		private InterfaceMock mock9;
+		@NiceMock
+		private InterfaceMock mock10;
+		@StrictMock
+		private WiredByTypeMock mock11;
+		@StrictMock
+		private WiredByTypeMock mock12;
+		@StrictMock
+		private WiredByTypeMock mock13;
+		@StrictMock
+		private WiredByTypeMock mock14;
+		@StrictMock
+		private WiredByTypeMock mock15;
+		@Mock
+		private ClassMock mock16;
+		@Mock
+		private ClassMock mock17;
+		@Mock
+		private ClassMock mock18;
+		@Mock
+		private ClassMock mock19;
+		@Mock
+		private ClassMock mock20;
+	}
+
+	static class Level1 {
+		InterfaceMock level1;
+	}
+
+	static class Level2 extends Level1 {
+		InterfaceMock level2;
+	}
+
+	static class Level3 extends Level2 {
+		InterfaceMock level3;
+	}
+
+	static class Level4 extends Level3 {
+		InterfaceMock level4;
+	}
+
+	/**
+	 * The test subject at the bottom of the hierarchy.
+	 */
+	public static class Level5 extends Level4 {
+		InterfaceMock level5;
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import java.io.File;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+
+/**
+ * Runs the test classes in the jar it is loaded from, for the cds and
+ * cds-train profiles. The JVM only archives classes loaded from jars, so
+ * those profiles run the suite here, on a class path of jars, rather than
+ * through Surefire, which always puts the test classes directory on the
+ * class path. The classes are picked by Surefire's default names, and run
+ * with the listeners Surefire is given.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+public class CdsSuite {
+
+	private CdsSuite() {
+		// Hide utility class constructor
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		JUnitCore core = new JUnitCore();
+		core.addListener(new MockWarmUpListener());
+		core.addListener(new SetupBaselineListener());
+		core.addListener(new TestCostListener());
+
+		Result result = core.run(testClasses().toArray(new Class<?>[0]));
+
+		for (Failure failure : result.getFailures()) {
+			System.err.println(failure.getTestHeader() + ": " + failure.getMessage());
+		}
+
+		System.out.println("Tests run: " + result.getRunCount() + ", Failures: " + result.getFailureCount()
+				+ ", Ignored: " + result.getIgnoreCount());
+
+		System.exit(result.wasSuccessful() ? 0 : 1);
+	}
+
+	private static List<Class<?>> testClasses() throws Exception {
+
+		File jar = new File(CdsSuite.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+
+		if (!jar.isFile()) {
+			throw new IllegalStateException("Must be run from the test jar, not " + jar);
+		}
+
+		List<String> names = new ArrayList<String>();
+		JarFile file = new JarFile(jar);
+
+		try {
+			for (Enumeration<JarEntry> entries = file.entries(); entries.hasMoreElements();) {
+
+				String entry = entries.nextElement().getName();
+
+				if (entry.endsWith(".class") && entry.indexOf('$') < 0) {
+					names.add(entry.substring(0, entry.length() - ".class".length()).replace('/', '.'));
+				}
+			}
+		} finally {
+			file.close();
+		}
+
+		Collections.sort(names);
+
+		List<Class<?>> classes = new ArrayList<Class<?>>();
+
+		for (String name : names) {
+
+			String simpleName = name.substring(name.lastIndexOf('.') + 1);
+
+			if (simpleName.startsWith("Test") || simpleName.endsWith("Test") || simpleName.endsWith("Tests")
+					|| simpleName.endsWith("TestCase")) {
+
+				Class<?> type = Class.forName(name);
+
+				if (!Modifier.isAbstract(type.getModifiers())) {
+					classes.add(type);
+				}
+			}
+		}
+
+		return classes;
+	}
+}
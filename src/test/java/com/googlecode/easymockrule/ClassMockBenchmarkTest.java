@@ -0,0 +1,114 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import static org.easymock.EasyMock.expect;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.googlecode.easymockrule.EasyMockRuleTest.ClassMock;
+import com.googlecode.easymockrule.EasyMockRuleTest.InterfaceMock;
+
+/**
+ * Creates 1000 class mocks of the same type and checks that, once the mocked
+ * class has been seen, each costs about the same as an interface mock.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+public class ClassMockBenchmarkTest {
+
+	private static final int MOCKS = 1000;
+
+	private static com.sun.management.ThreadMXBean threads;
+
+	@BeforeClass
+	public static void enableAllocationCounting() {
+
+		ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+		assumeTrue(threadMXBean instanceof com.sun.management.ThreadMXBean);
+
+		threads = (com.sun.management.ThreadMXBean) threadMXBean;
+
+		assumeTrue(threads.isThreadAllocatedMemorySupported());
+
+		threads.setThreadAllocatedMemoryEnabled(true);
+	}
+
+	@Test
+	public void classMocksShouldCostAboutTheSameAsInterfaceMocks() throws Exception {
+
+		bytesPerMock(ClassMock.class);
+		bytesPerMock(InterfaceMock.class);
+
+		long classMock = bytesPerMock(ClassMock.class);
+		long interfaceMock = bytesPerMock(InterfaceMock.class);
+
+		assertThat("bytes per class mock", classMock, lessThanOrEqualTo(interfaceMock * 3 / 2));
+	}
+
+	@Test
+	public void shouldCreateIndependentMocksFromTheCachedClass() throws Exception {
+
+		MockManager mocks = new MockManager();
+		ClassMock[] classMocks = new ClassMock[MOCKS];
+
+		for (int i = 0; i < MOCKS; i++) {
+			classMocks[i] = mocks.createMock("classMock" + i, ClassMock.class);
+			expect(classMocks[i].getOneThing()).andReturn(null);
+		}
+
+		mocks.replayAll();
+
+		for (ClassMock classMock : classMocks) {
+			classMock.getOneThing();
+		}
+
+		mocks.verifyAll();
+
+		assertThat(classMocks[0].getClass(), sameInstance((Object) classMocks[MOCKS - 1].getClass()));
+		assertThat(EasyMockUtils.getMockedType(classMocks[0]), is((Object) ClassMock.class));
+		assertThat(classMocks[0].toString(), is("classMock0"));
+		assertThat(classMocks[0], not(classMocks[1]));
+	}
+
+	private long bytesPerMock(Class<?> toMock) {
+
+		MockManager mocks = new MockManager();
+		long threadId = Thread.currentThread().getId();
+		long before = threads.getThreadAllocatedBytes(threadId);
+
+		for (int i = 0; i < MOCKS; i++) {
+			mocks.createMock("mock", toMock);
+		}
+
+		long perMock = (threads.getThreadAllocatedBytes(threadId) - before) / MOCKS;
+
+		mocks.releaseAll();
+
+		return perMock;
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import static com.googlecode.easymockrule.EasyMockRule.andReturnEach;
+import static com.googlecode.easymockrule.EasyMockRule.compile;
+import static com.googlecode.easymockrule.EasyMockRule.with;
+import static org.easymock.EasyMock.expect;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.easymock.IExpectationSetters;
+import org.hamcrest.BaseMatcher;
+import org.hamcrest.Description;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.googlecode.easymockrule.ExpectationTemplateTest.Greeter;
+
+/**
+ * Unit tests for reusing Hamcrest matchers in expectations.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+public class CompiledMatcherTest {
+
+	private static final CompiledMatcher<String> STARTS_WITH_W = compile(startsWith("w"));
+
+	@Rule
+	public EasyMockRule mocks = new EasyMockRule(this);
+
+	@Mock
+	private Greeter greeter;
+
+	@Test
+	public void shouldReuseTheCompiledMatcherForAnEquivalentMatcher() throws Exception {
+
+		assertThat(compile(startsWith("a")), sameInstance(compile(startsWith("a"))));
+		assertThat(compile(startsWith("a")), not(sameInstance(compile(startsWith("b")))));
+		assertThat(compile(new Impostor()), not(sameInstance((Object) compile(startsWith("a")))));
+	}
+
+	@Test
+	public void shouldMatchWithCompiledMatcher() throws Exception {
+
+		expect(greeter.greet(with(STARTS_WITH_W))).andReturn("Hello w").times(2);
+		expect(greeter.greet(with(startsWith("a")))).andReturn("Hello a");
+
+		mocks.replayAll();
+
+		assertThat(greeter.greet("world"), is("Hello w"));
+		assertThat(greeter.greet("again"), is("Hello a"));
+		assertThat(greeter.greet("wide"), is("Hello w"));
+	}
+
+	@Test
+	public void shouldReturnEachValueInTurn() throws Exception {
+
+		andReturnEach(expect(greeter.greet(with(STARTS_WITH_W))), Arrays.asList("one", "two", "three"));
+
+		mocks.replayAll();
+
+		assertThat(greeter.greet("w1"), is("one"));
+		assertThat(greeter.greet("w2"), is("two"));
+		assertThat(greeter.greet("w3"), is("three"));
+	}
+
+	@Test
+	public void shouldRejectNoValues() throws Exception {
+
+		IExpectationSetters<String> expectation = expect(greeter.greet("world"));
+
+		try {
+			andReturnEach(expectation, Collections.<String> emptyList());
+			fail("Expected no values to be rejected");
+
+		} catch (IllegalArgumentException expected) {
+			// Finish the expectation so that the rule can verify the mock
+			expectation.andStubReturn("Hello world");
+		}
+	}
+
+	/**
+	 * Describes itself like startsWith("a"), but matches anything.
+	 */
+	private static class Impostor extends BaseMatcher<String> {
+
+		@Override
+		public boolean matches(Object item) {
+			return true;
+		}
+
+		@Override
+		public void describeTo(Description description) {
+			description.appendDescriptionOf(startsWith("a"));
+		}
+	}
+}
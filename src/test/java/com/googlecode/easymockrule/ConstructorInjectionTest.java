@@ -0,0 +1,240 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.googlecode.easymockrule.EasyMockRuleTest.ClassMock;
+import com.googlecode.easymockrule.EasyMockRuleTest.InterfaceMock;
+import com.googlecode.easymockrule.EasyMockRuleTest.WiredByTypeMock;
+
+/**
+ * Unit tests for creating test subjects through their constructors.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+public class ConstructorInjectionTest {
+
+	@Rule
+	public EasyMockRule mocks = new EasyMockRule(this);
+
+	@Mock
+	private InterfaceMock interfaceMock;
+
+	@NiceMock
+	private InterfaceMock anotherInterfaceMock;
+
+	@Mock
+	private ClassMock classMock;
+
+	@TestSubject
+	private ConstructorOnly constructorOnly;
+
+	@TestSubject(useConstructor = true)
+	private SeveralConstructors severalConstructors;
+
+	@TestSubject
+	private NoArgByDefault noArgByDefault;
+
+	@TestSubject
+	private PartlyConstructed partlyConstructed;
+
+	@TestSubject
+	private NamedParameters namedParameters;
+
+	@Test
+	public void shouldPassMocksToTheConstructor() throws Exception {
+
+		assertThat(constructorOnly.interfaceMock, sameInstance(interfaceMock));
+		assertThat(constructorOnly.classMock, sameInstance(classMock));
+	}
+
+	@Test
+	public void shouldPassMocksOfTheSameTypeInDeclarationOrder() throws Exception {
+
+		assertThat(severalConstructors.first, sameInstance(interfaceMock));
+		assertThat(severalConstructors.second, sameInstance(anotherInterfaceMock));
+	}
+
+	@Test
+	public void shouldPassMocksByParameterNameFirst() throws Exception {
+
+		assertThat(namedParameters.nice, sameInstance(anotherInterfaceMock));
+		assertThat(namedParameters.plain, sameInstance(interfaceMock));
+	}
+
+	@Test
+	public void shouldUseTheGreediestConstructorThatCanBeSatisfied() throws Exception {
+		assertThat(severalConstructors.wiredByTypeMock, nullValue());
+	}
+
+	@Test
+	public void shouldUseTheNoArgConstructorUnlessAskedNotTo() throws Exception {
+
+		assertThat(noArgByDefault.constructed, is(false));
+		assertThat(noArgByDefault.classMock, sameInstance(classMock));
+	}
+
+	@Test
+	public void shouldInjectFieldsTheConstructorLeftEmpty() throws Exception {
+
+		assertThat(partlyConstructed.interfaceMock, sameInstance(interfaceMock));
+		assertThat(partlyConstructed.classMock, sameInstance(classMock));
+		assertThat(partlyConstructed.severalConstructors, sameInstance(severalConstructors));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void shouldNotPassAnyOfSeveralAssignableCandidates() throws Exception {
+
+		TestSubjectConstructor.resolve(TakesObject.class,
+				Arrays.asList(getClass().getDeclaredField("interfaceMock"), getClass().getDeclaredField("classMock")),
+				null, false).newInstance(new Object[] { interfaceMock, classMock });
+	}
+
+	@Test(expected = IOException.class)
+	public void shouldRethrowExceptionsFromTheConstructor() throws Exception {
+
+		TestSubjectConstructor.resolve(Throws.class, Collections.<Field> emptyList(), null, false).newInstance(new Object[0]);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void shouldReportConstructorsThatCantBeSatisfied() throws Exception {
+
+		TestSubjectConstructor.resolve(ConstructorOnly.class, Collections.<Field> emptyList(), null, false).newInstance(
+				new Object[0]);
+	}
+
+	/**
+	 * A test subject that can only be created with its mocks.
+	 */
+	public static class ConstructorOnly {
+
+		private final InterfaceMock interfaceMock;
+
+		private final ClassMock classMock;
+
+		public ConstructorOnly(InterfaceMock interfaceMock, ClassMock classMock) {
+			this.interfaceMock = interfaceMock;
+			this.classMock = classMock;
+		}
+	}
+
+	/**
+	 * A test subject with a constructor too greedy for the test class's mocks.
+	 */
+	public static class SeveralConstructors {
+
+		private InterfaceMock first;
+
+		private InterfaceMock second;
+
+		private WiredByTypeMock wiredByTypeMock;
+
+		public SeveralConstructors() {
+		}
+
+		public SeveralConstructors(InterfaceMock first, InterfaceMock second) {
+			this.first = first;
+			this.second = second;
+		}
+
+		public SeveralConstructors(InterfaceMock first, InterfaceMock second, WiredByTypeMock wiredByTypeMock) {
+			this(first, second);
+			this.wiredByTypeMock = wiredByTypeMock;
+		}
+	}
+
+	/**
+	 * A test subject with a no-arg constructor, as well as one that takes a
+	 * mock.
+	 */
+	public static class NoArgByDefault {
+
+		private ClassMock classMock;
+
+		private boolean constructed;
+
+		public NoArgByDefault() {
+		}
+
+		public NoArgByDefault(ClassMock classMock) {
+			this.classMock = classMock;
+			this.constructed = true;
+		}
+	}
+
+	/**
+	 * A test subject whose constructor takes some of what it needs.
+	 */
+	public static class PartlyConstructed {
+
+		private final InterfaceMock interfaceMock;
+
+		private ClassMock classMock;
+
+		private SeveralConstructors severalConstructors;
+
+		public PartlyConstructed(InterfaceMock interfaceMock) {
+			this.interfaceMock = interfaceMock;
+		}
+	}
+
+	/**
+	 * A test subject whose parameters are named after mocks declared in the
+	 * opposite order.
+	 */
+	public static class NamedParameters {
+
+		private final InterfaceMock nice;
+
+		private final InterfaceMock plain;
+
+		public NamedParameters(InterfaceMock anotherInterfaceMock, InterfaceMock interfaceMock) {
+			this.nice = anotherInterfaceMock;
+			this.plain = interfaceMock;
+		}
+	}
+
+	/**
+	 * A test subject whose constructor any candidate could be passed to.
+	 */
+	public static class TakesObject {
+
+		public TakesObject(Object anything) {
+		}
+	}
+
+	/**
+	 * A test subject whose constructor throws a checked exception.
+	 */
+	public static class Throws {
+
+		public Throws() throws IOException {
+			throw new IOException("Can't be created");
+		}
+	}
+}
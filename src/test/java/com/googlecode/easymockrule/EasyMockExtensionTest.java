@@ -0,0 +1,299 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.fail;
+import static org.junit.platform.engine.discovery.DiscoverySelectors.selectClass;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.junit.jupiter.api.extension.ExtensionContext.Namespace;
+import org.junit.jupiter.api.extension.ExtensionContext.Store;
+import org.junit.platform.launcher.core.LauncherDiscoveryRequestBuilder;
+import org.junit.platform.launcher.core.LauncherFactory;
+import org.junit.platform.launcher.listeners.SummaryGeneratingListener;
+import org.junit.platform.launcher.listeners.TestExecutionSummary;
+
+import com.googlecode.easymockrule.EasyMockRuleTest.InterfaceMock;
+
+/**
+ * Unit tests for EasyMockExtension, driven through a mock ExtensionContext,
+ * and through the Jupiter engine itself, launched from a test on the JUnit 4
+ * provider with the rest of the suite.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+public class EasyMockExtensionTest {
+
+	private EasyMockExtension extension = new EasyMockExtension();
+
+	private MapStore rootStore;
+
+	@Before
+	public void setUp() {
+		rootStore = new MapStore();
+	}
+
+	@Test
+	public void shouldCreateMocksForEachTestAndFindMetadataOncePerClass() throws Exception {
+
+		JupiterTest first = new JupiterTest();
+		JupiterTest second = new JupiterTest();
+		ExtensionContext firstContext = context(first, null);
+		ExtensionContext secondContext = context(second, null);
+
+		extension.beforeEach(firstContext);
+		Object metadata = rootStore.get(JupiterTest.class);
+		extension.beforeEach(secondContext);
+
+		assertThat(metadata, instanceOf(TestClassMetadata.class));
+		assertThat(rootStore.get(JupiterTest.class), sameInstance(metadata));
+
+		assertThat(first.interfaceMock, notNullValue());
+		assertThat(first.testSubject, notNullValue());
+		assertThat(second.interfaceMock, not(sameInstance(first.interfaceMock)));
+
+		extension.afterEach(firstContext);
+		extension.afterEach(secondContext);
+
+		assertThat(first.interfaceMock, nullValue());
+		assertThat(second.testSubject, nullValue());
+	}
+
+	@Test
+	public void shouldResolveMockManagerAndVerifyAfterPassingTest() throws Exception {
+
+		JupiterTest test = new JupiterTest();
+		ExtensionContext context = context(test, null);
+
+		extension.beforeEach(context);
+
+		MockManager mocks = (MockManager) extension.resolveParameter(null, context);
+		expect(test.interfaceMock.getOneThing()).andReturn(null);
+		mocks.replayAll();
+
+		try {
+			extension.afterEach(context);
+			fail("Expected unmet expectation to fail verification");
+		} catch (AssertionError expected) {
+			assertThat(expected.getMessage().contains("getOneThing()"), is(true));
+		}
+	}
+
+	@Test
+	public void shouldNotVerifyAfterFailedTest() throws Exception {
+
+		JupiterTest test = new JupiterTest();
+		ExtensionContext context = context(test, new AssertionError("test failed"));
+
+		extension.beforeEach(context);
+
+		MockManager mocks = (MockManager) extension.resolveParameter(null, context);
+		expect(test.interfaceMock.getOneThing()).andReturn(null);
+		mocks.replayAll();
+
+		extension.afterEach(context);
+
+		assertThat(test.interfaceMock, nullValue());
+	}
+
+	@Test
+	public void concurrentTestsOnTheEngineShouldEachHaveTheirOwnMocks() {
+
+		TestExecutionSummary summary = runOnJupiter(ParallelJupiterTest.class, "true");
+
+		assertThat(summary.getFailures().toString(), summary.getTestsSucceededCount(), is(4L));
+	}
+
+	@Test
+	public void unmetExpectationShouldFailTheTestOnTheEngine() {
+
+		TestExecutionSummary summary = runOnJupiter(UnmetJupiterTest.class, "false");
+
+		assertThat(summary.getTestsFailedCount(), is(1L));
+		assertThat(summary.getFailures().get(0).getException().getMessage().contains("getOneThing()"), is(true));
+	}
+
+	private static TestExecutionSummary runOnJupiter(Class<?> testClass, String parallel) {
+
+		SummaryGeneratingListener listener = new SummaryGeneratingListener();
+
+		LauncherFactory.create().execute(
+				LauncherDiscoveryRequestBuilder.request().selectors(selectClass(testClass))
+						.configurationParameter("junit.jupiter.execution.parallel.enabled", parallel)
+						.configurationParameter("junit.jupiter.execution.parallel.mode.default", "concurrent")
+						.configurationParameter("junit.jupiter.execution.parallel.config.strategy", "fixed")
+						.configurationParameter("junit.jupiter.execution.parallel.config.fixed.parallelism", "4")
+						.build(), listener);
+
+		return listener.getSummary();
+	}
+
+	private ExtensionContext context(Object testInstance, Throwable executionException) {
+
+		ExtensionContext root = createNiceMock(ExtensionContext.class);
+		expect(root.getStore((Namespace) anyObject())).andReturn(rootStore).anyTimes();
+		replay(root);
+
+		ExtensionContext context = createNiceMock(ExtensionContext.class);
+		expect(context.getRoot()).andReturn(root).anyTimes();
+		expect(context.getStore((Namespace) anyObject())).andReturn(new MapStore()).anyTimes();
+		expect((Object) context.getRequiredTestClass()).andReturn(testInstance.getClass()).anyTimes();
+		expect(context.getRequiredTestInstance()).andReturn(testInstance).anyTimes();
+		expect(context.getExecutionException()).andReturn(Optional.ofNullable(executionException)).anyTimes();
+		replay(context);
+
+		return context;
+	}
+
+	public static class JupiterTest {
+
+		@Mock
+		private InterfaceMock interfaceMock;
+
+		@TestSubject
+		private EasyMockTestSubject testSubject;
+	}
+
+	/**
+	 * Four tests that only pass if they all run at once, each calling its own
+	 * mock once.
+	 */
+	@ExtendWith(EasyMockExtension.class)
+	public static class ParallelJupiterTest {
+
+		private static final CyclicBarrier ALL_RUNNING = new CyclicBarrier(4);
+
+		@Mock
+		private InterfaceMock interfaceMock;
+
+		@TestSubject
+		private EasyMockTestSubject testSubject;
+
+		@org.junit.jupiter.api.Test
+		void first(MockManager mocks) throws Exception {
+			callOwnMockWithTheOthers(mocks);
+		}
+
+		@org.junit.jupiter.api.Test
+		void second(MockManager mocks) throws Exception {
+			callOwnMockWithTheOthers(mocks);
+		}
+
+		@org.junit.jupiter.api.Test
+		void third(MockManager mocks) throws Exception {
+			callOwnMockWithTheOthers(mocks);
+		}
+
+		@org.junit.jupiter.api.Test
+		void fourth(MockManager mocks) throws Exception {
+			callOwnMockWithTheOthers(mocks);
+		}
+
+		private void callOwnMockWithTheOthers(MockManager mocks) throws Exception {
+
+			expect(interfaceMock.getOneThing()).andReturn(null);
+			mocks.replayAll();
+
+			ALL_RUNNING.await(10, TimeUnit.SECONDS);
+
+			interfaceMock.getOneThing();
+		}
+	}
+
+	/**
+	 * A test that never makes the call it expects.
+	 */
+	@ExtendWith(EasyMockExtension.class)
+	public static class UnmetJupiterTest {
+
+		@Mock
+		private InterfaceMock interfaceMock;
+
+		@org.junit.jupiter.api.Test
+		void expectsACall(MockManager mocks) {
+			expect(interfaceMock.getOneThing()).andReturn(null);
+			mocks.replayAll();
+		}
+	}
+
+	/**
+	 * Just enough of a Store for the extension, which only ever uses one
+	 * namespace from each.
+	 */
+	private static class MapStore implements Store {
+
+		private final Map<Object, Object> values = new HashMap<Object, Object>();
+
+		@Override
+		public Object get(Object key) {
+			return values.get(key);
+		}
+
+		@Override
+		public <V> V get(Object key, Class<V> requiredType) {
+			return requiredType.cast(values.get(key));
+		}
+
+		@Override
+		public <K, V> Object getOrComputeIfAbsent(K key, Function<K, V> defaultCreator) {
+			if (!values.containsKey(key)) {
+				values.put(key, defaultCreator.apply(key));
+			}
+			return values.get(key);
+		}
+
+		@Override
+		public <K, V> V getOrComputeIfAbsent(K key, Function<K, V> defaultCreator, Class<V> requiredType) {
+			return requiredType.cast(getOrComputeIfAbsent(key, defaultCreator));
+		}
+
+		@Override
+		public void put(Object key, Object value) {
+			values.put(key, value);
+		}
+
+		@Override
+		public Object remove(Object key) {
+			return values.remove(key);
+		}
+
+		@Override
+		public <V> V remove(Object key, Class<V> requiredType) {
+			return requiredType.cast(values.remove(key));
+		}
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.easymock.EasyMock;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.googlecode.easymockrule.EasyMockRuleTest.ClassMock;
+import com.googlecode.easymockrule.EasyMockRuleTest.InterfaceMock;
+
+/**
+ * Unit tests for the statistics MBean.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+public class EasyMockRuleStatisticsTest {
+
+	@Rule
+	public EasyMockRule mocks = new EasyMockRule(this);
+
+	@StrictMock
+	private InterfaceMock interfaceMock;
+
+	@Test
+	public void shouldRegisterWithThePlatformMBeanServer() throws Exception {
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(EasyMockRuleStatistics.OBJECT_NAME);
+
+		assertThat(server.isRegistered(name), is(true));
+		assertThat((Long) server.getAttribute(name, "TestsExecuted"), greaterThanOrEqualTo(1L));
+		assertThat((Long) server.getAttribute(name, "StrictMocksCreated"), greaterThanOrEqualTo(1L));
+		assertThat((Long) server.getAttribute(name, "LiveMocks"), greaterThanOrEqualTo(1L));
+	}
+
+	@Test
+	public void shouldCountMocksByKind() throws Exception {
+
+		EasyMockRuleStatistics statistics = EasyMockRuleStatistics.getInstance();
+		long interfaceMocks = statistics.getInterfaceMocksCreated();
+		long classMocks = statistics.getClassMocksCreated();
+		long niceMocks = statistics.getNiceMocksCreated();
+		long creationNanos = statistics.getMockCreationNanos();
+		long liveMocks = statistics.getLiveMocks();
+
+		mocks.createNiceMock("classMock", ClassMock.class);
+
+		assertThat(statistics.getInterfaceMocksCreated(), is(interfaceMocks));
+		assertThat(statistics.getClassMocksCreated(), is(classMocks + 1));
+		assertThat(statistics.getNiceMocksCreated(), is(niceMocks + 1));
+		assertThat(statistics.getMockCreationNanos(), greaterThan(creationNanos));
+		assertThat(statistics.getLiveMocks(), is(liveMocks + 1));
+	}
+
+	@Test
+	public void shouldCountRegisteredMocksAsLiveUntilDeregistered() {
+
+		EasyMockRuleStatistics statistics = EasyMockRuleStatistics.getInstance();
+		long liveMocks = statistics.getLiveMocks();
+		long interfaceMocks = statistics.getInterfaceMocksCreated();
+
+		InterfaceMock external = EasyMock.createMock(InterfaceMock.class);
+
+		mocks.registerMock(external);
+
+		assertThat(statistics.getLiveMocks(), is(liveMocks + 1));
+		assertThat(statistics.getInterfaceMocksCreated(), is(interfaceMocks));
+
+		mocks.deregisterMock(external);
+
+		assertThat(statistics.getLiveMocks(), is(liveMocks));
+	}
+
+	@Test
+	public void shouldOnlyReleaseMocksNotAlreadyDeregistered() {
+
+		EasyMockRuleStatistics statistics = EasyMockRuleStatistics.getInstance();
+		long liveMocks = statistics.getLiveMocks();
+
+		MockManager manager = new MockManager();
+		InterfaceMock deregistered = manager.createMock(InterfaceMock.class);
+		manager.createMocks("batch", InterfaceMock.class, 3);
+
+		assertThat(statistics.getLiveMocks(), is(liveMocks + 4));
+
+		manager.deregisterMock(deregistered);
+
+		assertThat(statistics.getLiveMocks(), is(liveMocks + 3));
+
+		manager.releaseAll();
+
+		assertThat(statistics.getLiveMocks(), is(liveMocks));
+	}
+}
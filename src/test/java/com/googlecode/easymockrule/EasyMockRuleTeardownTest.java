@@ -0,0 +1,111 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+
+import com.googlecode.easymockrule.EasyMockRuleTest.ClassMock;
+import com.googlecode.easymockrule.EasyMockRuleTest.InterfaceMock;
+
+/**
+ * Unit tests for the references EasyMockRule releases once a test completes.
+ * The tests run nested test classes through JUnitCore so that we can look at
+ * the test instance after the rule has finished with it.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+public class EasyMockRuleTeardownTest {
+
+	@After
+	public void forgetFixtures() {
+		ReleasesReferences.instance = null;
+		LeaksAMock.leaked = null;
+	}
+
+	@Test
+	public void shouldClearMockAndTestSubjectFieldsAfterTheTest() throws Exception {
+
+		Result result = JUnitCore.runClasses(ReleasesReferences.class);
+
+		assertThat(result.wasSuccessful(), is(true));
+		assertThat(ReleasesReferences.instance.interfaceMock, nullValue());
+		assertThat(ReleasesReferences.instance.classMock, nullValue());
+		assertThat(ReleasesReferences.instance.testSubject, nullValue());
+	}
+
+	@Test
+	public void shouldReportMocksStillReachableAfterTheTest() throws Exception {
+
+		Result result = JUnitCore.runClasses(LeaksAMock.class);
+
+		assertThat(result.getFailureCount(), is(1));
+		assertThat(result.getFailures().get(0).getMessage(), containsString("interfaceMock"));
+	}
+
+	/**
+	 * Remembers its instance so the outer test can check what was released.
+	 */
+	public static class ReleasesReferences {
+
+		static ReleasesReferences instance;
+
+		@Rule
+		public EasyMockRule mocks = new EasyMockRule(this).detectLeaks();
+
+		@Mock
+		private InterfaceMock interfaceMock;
+
+		@NiceMock
+		private ClassMock classMock;
+
+		@TestSubject
+		private EasyMockTestSubject testSubject;
+
+		@Test
+		public void useTheMocks() {
+			instance = this;
+			mocks.replayAll();
+		}
+	}
+
+	/**
+	 * Holds on to a mock from a static field.
+	 */
+	public static class LeaksAMock {
+
+		static Object leaked;
+
+		@Rule
+		public EasyMockRule mocks = new EasyMockRule(this).detectLeaks();
+
+		@Mock
+		private InterfaceMock interfaceMock;
+
+		@Test
+		public void leakTheMock() {
+			leaked = interfaceMock;
+		}
+	}
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.capture;
+import static org.easymock.EasyMock.expect;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.fail;
+
+import org.easymock.Capture;
+import org.easymock.IAnswer;
+import org.easymock.internal.MocksControl.MockType;
+import org.easymock.internal.RecordState;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.googlecode.easymockrule.EasyMockRuleTest.Thing;
+
+/**
+ * Unit tests for expectation templates.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+public class ExpectationTemplateTest {
+
+	private static int recordings;
+
+	private static final ExpectationTemplate<Greeter> GREETER = new ExpectationTemplate<Greeter>("greeter",
+			Greeter.class, MockType.STRICT) {
+
+		@Override
+		protected void record(Greeter mock) {
+			recordings++;
+			expect(mock.greet("world")).andReturn("Hello world");
+			expect(mock.greet("again")).andReturn("Hello again");
+		}
+	};
+
+	@Rule
+	public EasyMockRule mocks = new EasyMockRule(this);
+
+	@Test
+	public void shouldCreateIndependentMocksFromOneRecording() throws Exception {
+
+		Greeter first = mocks.createMock(GREETER);
+		Greeter second = mocks.createMock(GREETER);
+
+		assertThat(recordings, is(1));
+		assertThat(first, not(sameInstance(second)));
+		assertThat(EasyMockUtils.getMockType(first), is("STRICT"));
+		assertThat(EasyMockUtils.getMockControl(first).getState(), instanceOf(RecordState.class));
+
+		mocks.replayAll();
+
+		assertThat(first.greet("world"), is("Hello world"));
+		assertThat(first.greet("again"), is("Hello again"));
+		assertThat(second.greet("world"), is("Hello world"));
+		assertThat(second.greet("again"), is("Hello again"));
+	}
+
+	@Test
+	public void shouldAllowMoreExpectationsAfterCreation() throws Exception {
+
+		Greeter greeter = mocks.createMock(GREETER);
+		expect(greeter.greet("later")).andReturn("Hello later");
+
+		mocks.replayAll();
+
+		greeter.greet("world");
+		greeter.greet("again");
+		assertThat(greeter.greet("later"), is("Hello later"));
+		assertThat(recordings, is(1));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldRejectClassMocks() throws Exception {
+
+		new ExpectationTemplate<Thing>("thing", Thing.class) {
+			@Override
+			protected void record(Thing mock) {
+			}
+		};
+	}
+
+	@Test
+	public void shouldShareValuesThatArentSerializable() throws Exception {
+
+		final Object notSerializable = new Object();
+
+		ExpectationTemplate<Lookup> template = new ExpectationTemplate<Lookup>("lookup", Lookup.class) {
+			@Override
+			protected void record(Lookup mock) {
+				expect(mock.find("key")).andReturn(notSerializable);
+			}
+		};
+
+		Lookup first = mocks.createMock(template);
+		Lookup second = mocks.createMock(template);
+
+		mocks.replayAll();
+
+		assertThat(first.find("key"), sameInstance(notSerializable));
+		assertThat(second.find("key"), sameInstance(notSerializable));
+	}
+
+	@Test
+	public void shouldRejectCaptures() throws Exception {
+
+		final Capture<String> captured = new Capture<String>();
+
+		ExpectationTemplate<Greeter> template = new ExpectationTemplate<Greeter>("greeter", Greeter.class) {
+			@Override
+			protected void record(Greeter mock) {
+				expect(mock.greet(capture(captured))).andReturn("Hello");
+			}
+		};
+
+		try {
+			template.newMock();
+			fail("Expected the capture to be rejected");
+
+		} catch (IllegalStateException expected) {
+			assertThat(expected.getCause().getMessage(), containsString("Can't share the capture"));
+		}
+	}
+
+	@Test
+	public void shouldRejectAnswersWithState() throws Exception {
+
+		ExpectationTemplate<Greeter> template = new ExpectationTemplate<Greeter>("greeter", Greeter.class) {
+			@Override
+			protected void record(Greeter mock) {
+				expect(mock.greet("world")).andStubAnswer(new Counting());
+			}
+		};
+
+		try {
+			template.newMock();
+			fail("Expected the answer to be rejected");
+
+		} catch (IllegalStateException expected) {
+			assertThat(expected.getCause().getMessage(), containsString("Can't share the answer"));
+		}
+	}
+
+	@Test
+	public void shouldShareAnswersWithoutState() throws Exception {
+
+		ExpectationTemplate<Greeter> template = new ExpectationTemplate<Greeter>("greeter", Greeter.class) {
+			@Override
+			protected void record(Greeter mock) {
+				expect(mock.greet("world")).andAnswer(new Polite());
+			}
+		};
+
+		Greeter greeter = mocks.createMock(template);
+
+		mocks.replayAll();
+
+		assertThat(greeter.greet("world"), is("Hello"));
+	}
+
+	@Test
+	public void shouldCopyVarArgsExpectationsAndStubs() throws Exception {
+
+		ExpectationTemplate<Lookup> template = new ExpectationTemplate<Lookup>("lookup", Lookup.class) {
+			@Override
+			protected void record(Lookup mock) {
+				expect(mock.findAll("a", "b")).andReturn(2).times(2);
+				expect(mock.find((String) anyObject())).andStubReturn("stub");
+			}
+		};
+
+		Lookup lookup = mocks.createMock(template);
+
+		mocks.replayAll();
+
+		assertThat(lookup.findAll("a", "b"), is(2));
+		assertThat(lookup.findAll("a", "b"), is(2));
+		assertThat(lookup.find("anything"), is((Object) "stub"));
+	}
+
+	/**
+	 * Answer that keeps count of its calls.
+	 */
+	private static class Counting implements IAnswer<String> {
+
+		private int calls;
+
+		@Override
+		public String answer() {
+			return "Hello " + ++calls;
+		}
+	}
+
+	/**
+	 * Answer without any state.
+	 */
+	private static class Polite implements IAnswer<String> {
+
+		@Override
+		public String answer() {
+			return "Hello";
+		}
+	}
+
+	/**
+	 * An interface to record templates for.
+	 */
+	public interface Greeter {
+		String greet(String name);
+	}
+
+	/**
+	 * An interface with a varargs method.
+	 */
+	public interface Lookup {
+
+		Object find(String key);
+
+		int findAll(String... keys);
+	}
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import static org.easymock.EasyMock.expect;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+
+import com.googlecode.easymockrule.EasyMockRuleTest.InterfaceMock;
+
+/**
+ * Unit tests for checkpoints and fail fast mode.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+public class FailFastTest {
+
+	private MockManager mocks = new MockManager();
+
+	@Test
+	public void checkpointShouldReportCallsTheCodeUnderTestSwallowed() throws Exception {
+
+		InterfaceMock interfaceMock = mocks.createMock("interfaceMock", InterfaceMock.class);
+		expect(interfaceMock.getOneThing()).andReturn(null).times(2);
+
+		mocks.replayAll();
+
+		interfaceMock.getOneThing();
+		mocks.checkpoint();
+
+		interfaceMock.getOneThing();
+		callSwallowingFailure(interfaceMock);
+
+		try {
+			mocks.checkpoint();
+			fail("Expected the call over the limit to be reported");
+
+		} catch (AssertionError expected) {
+			assertThat(expected.getMessage(), containsString("1 unexpected call so far:"));
+			assertThat(expected.getMessage(), containsString("getOneThing(): expected: 2, actual: 3"));
+		}
+	}
+
+	@Test
+	public void failFastShouldInterruptTheTestAndRejectLaterCalls() throws Exception {
+
+		mocks.failFast();
+
+		final InterfaceMock interfaceMock = mocks.createMock("interfaceMock", InterfaceMock.class);
+		expect(interfaceMock.getOneThing()).andReturn(null);
+
+		mocks.replayAll();
+
+		Thread worker = new Thread() {
+			@Override
+			public void run() {
+				interfaceMock.getOneThing();
+				callSwallowingFailure(interfaceMock);
+			}
+		};
+		worker.start();
+		worker.join();
+
+		assertThat(Thread.interrupted(), is(true));
+
+		try {
+			interfaceMock.getOneThing();
+			fail("Expected calls to be rejected once the test has failed");
+
+		} catch (AssertionError expected) {
+			assertThat(expected.getMessage(), containsString("getOneThing(): expected: 1, actual: 2"));
+		}
+	}
+
+	@Test
+	public void ruleShouldStopALongTestOnItsFirstUnexpectedCall() throws Exception {
+
+		long start = System.currentTimeMillis();
+		Result result = JUnitCore.runClasses(LongTest.class);
+
+		assertThat(System.currentTimeMillis() - start, lessThan(LongTest.DURATION));
+		assertThat(result.getFailureCount(), is(1));
+		assertThat(result.getFailures().get(0).getMessage(), containsString("Unexpected method call interfaceMock.getOneThing()"));
+	}
+
+	@Test
+	public void interruptShouldNotCarryOverToTheNextTest() throws Exception {
+
+		InterruptedTwice.startedInterrupted.clear();
+
+		Result result = JUnitCore.runClasses(InterruptedTwice.class);
+
+		assertThat(result.getFailureCount(), is(2));
+		assertThat(InterruptedTwice.startedInterrupted, contains(false, false));
+	}
+
+	private static void callSwallowingFailure(InterfaceMock interfaceMock) {
+
+		try {
+			interfaceMock.getOneThing();
+
+		} catch (AssertionError swallowed) {
+			// As careless code under test might
+		}
+	}
+
+	/**
+	 * Two tests that each get interrupted, whichever order they run in, and
+	 * record whether they started out interrupted.
+	 */
+	public static class InterruptedTwice {
+
+		static final List<Boolean> startedInterrupted = new ArrayList<Boolean>();
+
+		@Rule
+		public EasyMockRule mocks = new EasyMockRule(this).failFast();
+
+		@Mock
+		private InterfaceMock interfaceMock;
+
+		@Test
+		public void first() {
+			interruptedByUnexpectedCall();
+		}
+
+		@Test
+		public void second() {
+			interruptedByUnexpectedCall();
+		}
+
+		// Leaves the interrupt set, as a test that never checks for it would
+		private void interruptedByUnexpectedCall() {
+
+			startedInterrupted.add(Thread.currentThread().isInterrupted());
+
+			mocks.replayAll();
+
+			new Thread() {
+				@Override
+				public void run() {
+					callSwallowingFailure(interfaceMock);
+				}
+			}.start();
+
+			while (!Thread.currentThread().isInterrupted()) {
+				Thread.yield();
+			}
+		}
+	}
+
+	/**
+	 * A soak test whose code under test swallows an unexpected call early on.
+	 */
+	public static class LongTest {
+
+		static final long DURATION = 60000;
+
+		@Rule
+		public EasyMockRule mocks = new EasyMockRule(this).failFast();
+
+		@Mock
+		private InterfaceMock interfaceMock;
+
+		@Test
+		public void soak() throws Exception {
+
+			mocks.replayAll();
+
+			new Thread() {
+				@Override
+				public void run() {
+					callSwallowingFailure(interfaceMock);
+				}
+			}.start();
+
+			Thread.sleep(DURATION);
+		}
+	}
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit tests for recording real interactions and replaying them as
+ * expectations.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+public class InteractionRecordingTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Rule
+	public EasyMockRule mocks = new EasyMockRule(this);
+
+	@StrictMock
+	private Catalogue catalogue;
+
+	@Test
+	public void shouldReplayRecordedInteractions() throws Exception {
+
+		File file = record();
+
+		mocks.replayInteractions(catalogue, file);
+		mocks.replayAll();
+
+		assertThat(catalogue.describe("widget", 2), is("2 x widget"));
+		assertThat(catalogue.describe("gadget", 1), is("1 x gadget"));
+		catalogue.reserve("widget");
+
+		try {
+			catalogue.reserve("gadget");
+			fail("Should have replayed the recorded exception");
+		} catch (IllegalStateException e) {
+			assertThat(e.getMessage(), is("gadget is out of stock"));
+		}
+	}
+
+	@Test
+	public void shouldReplayInterleavedCallsInOrderOnAStrictMock() throws Exception {
+
+		File file = folder.newFile("interleaved.rec");
+
+		InteractionRecorder<Catalogue> recorder = new InteractionRecorder<Catalogue>(Catalogue.class,
+				new RealCatalogue(), file);
+		Catalogue recording = recorder.getProxy();
+
+		recording.describe("a", 1);
+		recording.reserve("a");
+		recording.describe("b", 2);
+		recording.describe("c", 3);
+		recording.reserve("b");
+
+		recorder.close();
+
+		mocks.replayInteractions(catalogue, file);
+		mocks.replayAll();
+
+		assertThat(catalogue.describe("a", 1), is("1 x a"));
+		catalogue.reserve("a");
+		assertThat(catalogue.describe("b", 2), is("2 x b"));
+		assertThat(catalogue.describe("c", 3), is("3 x c"));
+		catalogue.reserve("b");
+	}
+
+	@Test
+	public void shouldRejectCallsThatDifferFromTheRecording() throws Exception {
+
+		File file = record();
+
+		mocks.replayInteractions(catalogue, file);
+		mocks.replayAll();
+
+		try {
+			catalogue.describe("widget", 3);
+			throw new IllegalStateException("Should have rejected the call");
+
+		} catch (AssertionError e) {
+			assertThat(e.getMessage(), containsString("describe(java.lang.String,int) with [widget, 2]"));
+		}
+
+		// Consume the rest of the recording so the rule's verify passes
+		catalogue.describe("gadget", 1);
+		catalogue.reserve("widget");
+		try {
+			catalogue.reserve("gadget");
+			fail("Should have replayed the recorded exception");
+		} catch (IllegalStateException e) {
+			// Expected
+		}
+	}
+
+	private File record() throws Exception {
+
+		File file = folder.newFile("catalogue.rec");
+
+		InteractionRecorder<Catalogue> recorder = new InteractionRecorder<Catalogue>(Catalogue.class,
+				new RealCatalogue(), file);
+		Catalogue recording = recorder.getProxy();
+
+		recording.describe("widget", 2);
+		recording.describe("gadget", 1);
+		recording.reserve("widget");
+
+		try {
+			recording.reserve("gadget");
+			fail("Should have been out of stock");
+		} catch (IllegalStateException e) {
+			// Recorded
+		}
+
+		recorder.close();
+
+		return file;
+	}
+
+	/**
+	 * The interface we record and replay.
+	 */
+	public interface Catalogue {
+
+		String describe(String item, int quantity);
+
+		void reserve(String item);
+	}
+
+	/**
+	 * A real implementation to record.
+	 */
+	public static class RealCatalogue implements Catalogue {
+
+		@Override
+		public String describe(String item, int quantity) {
+			return quantity + " x " + item;
+		}
+
+		@Override
+		public void reserve(String item) {
+			if (item.equals("gadget")) {
+				throw new IllegalStateException("gadget is out of stock");
+			}
+		}
+	}
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import static org.easymock.EasyMock.expect;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import com.googlecode.easymockrule.EasyMockRuleTest.InterfaceMock;
+
+/**
+ * Unit tests for running a test method as a load test.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+public class LoadTestTest {
+
+	@Test
+	public void loadTestShouldRunTheBodyOnEveryIterationAndScaleTheExpectations() {
+
+		LoadTestCase.setUps.set(0);
+		LoadTestCase.iterations.set(0);
+
+		Result result = JUnitCore.runClasses(LoadTestCase.class);
+
+		assertThat(result.getFailureCount(), is(0));
+		assertThat(LoadTestCase.setUps.get(), is(1));
+		assertThat(LoadTestCase.iterations.get(), is(200));
+	}
+
+	@Test
+	public void loadTestShouldFailWhenTheScaledExpectationsAreExceeded() {
+
+		Result result = JUnitCore.runClasses(OverLimitLoadTestCase.class);
+
+		assertThat(result.getFailureCount(), is(1));
+		assertThat(result.getFailures().get(0).getMessage(), containsString("expected: 100, actual: 101"));
+	}
+
+	@Test
+	public void loadTestShouldRunUnderAParameterizedName() {
+
+		Result result = JUnitCore.runClasses(ParameterizedLoadTestCase.class);
+
+		assertThat(result.getRunCount(), is(2));
+		assertThat(result.getFailureCount(), is(0));
+	}
+
+	@Test
+	public void loadTestShouldRefuseToSkipOtherRules() {
+
+		Result result = JUnitCore.runClasses(OtherRuleLoadTestCase.class);
+
+		assertThat(result.getFailureCount(), is(1));
+		assertThat(result.getFailures().get(0).getMessage(), containsString("can't run the other rules"));
+	}
+
+	@Test
+	public void histogramShouldReportPercentilesWithinItsPrecision() {
+
+		LatencyHistogram histogram = new LatencyHistogram();
+
+		for (long i = 1; i <= 100000; i++) {
+			histogram.record(i * 10);
+		}
+
+		assertThat(histogram.getCount(), is(100000L));
+		assertThat(histogram.getValueAtPercentile(50), allOf(greaterThanOrEqualTo(500000L),
+				lessThanOrEqualTo(508000L)));
+		assertThat(histogram.getValueAtPercentile(99.9), allOf(greaterThanOrEqualTo(999000L),
+				lessThanOrEqualTo(1000000L)));
+		assertThat(histogram.getValueAtPercentile(100), is(1000000L));
+	}
+
+	public static class LoadTestCase {
+
+		static AtomicInteger setUps = new AtomicInteger();
+
+		static AtomicInteger iterations = new AtomicInteger();
+
+		@Rule
+		public EasyMockRule mocks = new EasyMockRule(this);
+
+		@Mock
+		private InterfaceMock interfaceMock;
+
+		@Before
+		public void setUp() {
+			setUps.incrementAndGet();
+			expect(interfaceMock.getOneThing()).andReturn(null).times(2);
+			mocks.replayAll();
+		}
+
+		@Test
+		@LoadTest(threads = 4, iterations = 200)
+		public void callTwice() {
+			interfaceMock.getOneThing();
+			interfaceMock.getOneThing();
+			iterations.incrementAndGet();
+		}
+	}
+
+	public static class OverLimitLoadTestCase {
+
+		@Rule
+		public EasyMockRule mocks = new EasyMockRule(this);
+
+		@Mock
+		private InterfaceMock interfaceMock;
+
+		private AtomicInteger calls = new AtomicInteger();
+
+		@Before
+		public void setUp() {
+			expect(interfaceMock.getOneThing()).andReturn(null);
+			mocks.replayAll();
+		}
+
+		@Test
+		@LoadTest(threads = 2, iterations = 100)
+		public void callOnceTooOften() {
+			interfaceMock.getOneThing();
+
+			if (calls.incrementAndGet() == 50) {
+				interfaceMock.getOneThing();
+			}
+		}
+	}
+
+	@RunWith(Parameterized.class)
+	public static class ParameterizedLoadTestCase {
+
+		@Rule
+		public EasyMockRule mocks = new EasyMockRule(this);
+
+		@Mock
+		private InterfaceMock interfaceMock;
+
+		private final int calls;
+
+		public ParameterizedLoadTestCase(int calls) {
+			this.calls = calls;
+		}
+
+		@Parameters
+		public static List<Object[]> calls() {
+			return Arrays.asList(new Object[] { 1 }, new Object[] { 2 });
+		}
+
+		@Before
+		public void setUp() {
+			expect(interfaceMock.getOneThing()).andReturn(null).times(calls);
+			mocks.replayAll();
+		}
+
+		@Test
+		@LoadTest(threads = 2, iterations = 50)
+		public void call() {
+			for (int i = 0; i < calls; i++) {
+				interfaceMock.getOneThing();
+			}
+		}
+	}
+
+	public static class OtherRuleLoadTestCase {
+
+		@Rule
+		public EasyMockRule mocks = new EasyMockRule(this);
+
+		@Rule
+		public TemporaryFolder folder = new TemporaryFolder();
+
+		@Test
+		@LoadTest(iterations = 10)
+		public void run() {
+		}
+	}
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.fail;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Unit tests for serving a mock over loopback TCP.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+public class LoopbackServerTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final FrameCodec<Quotes> CODEC = new FrameCodec<Quotes>() {
+		@Override
+		public ByteBuffer answer(ByteBuffer request, Quotes service) {
+
+			byte[] symbol = new byte[request.remaining()];
+			request.get(symbol);
+
+			ByteBuffer answer = ByteBuffer.allocate(4);
+			answer.putInt(service.price(new String(symbol, UTF8)));
+			answer.flip();
+
+			return answer;
+		}
+	};
+
+	@Rule
+	public EasyMockRule mocks = new EasyMockRule(this);
+
+	@StrictMock
+	private Quotes quotes;
+
+	@Test
+	public void shouldAnswerPipelinedRequestsFromTheMock() throws Exception {
+
+		expect(quotes.price("ABC")).andReturn(42);
+		expect(quotes.price("XYZ")).andReturn(7);
+
+		mocks.replayAll();
+
+		LoopbackServer<Quotes> server = mocks.serve(quotes, CODEC);
+		Socket socket = new Socket(server.getAddress().getAddress(), server.getAddress().getPort());
+
+		try {
+			DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+
+			send(out, "ABC");
+			send(out, "XYZ");
+
+			assertThat(in.readInt(), is(4));
+			assertThat(in.readInt(), is(42));
+			assertThat(in.readInt(), is(4));
+			assertThat(in.readInt(), is(7));
+
+		} finally {
+			socket.close();
+		}
+	}
+
+	@Test
+	public void shouldDropTheConnectionAndFailOnCloseWhenTheMockFails() throws Exception {
+
+		Quotes unexpected = createMock("unexpected", Quotes.class);
+		replay(unexpected);
+
+		LoopbackServer<Quotes> server = new LoopbackServer<Quotes>(unexpected, CODEC);
+		Socket socket = new Socket(server.getAddress().getAddress(), server.getAddress().getPort());
+
+		try {
+			send(new DataOutputStream(socket.getOutputStream()), "ABC");
+			new DataInputStream(socket.getInputStream()).readInt();
+			fail("Expected the connection to be dropped");
+
+		} catch (EOFException expected) {
+			// The server dropped the connection
+		} finally {
+			socket.close();
+		}
+
+		try {
+			server.close();
+			fail("Expected close to report the unexpected call");
+
+		} catch (AssertionError expected) {
+			assertThat(expected.getMessage(), containsString("Unexpected method call unexpected.price(\"ABC\")"));
+		}
+	}
+
+	@Test
+	public void ruleShouldCloseEveryServerBeforeReportingTheFirstFailure() throws Exception {
+
+		EasyMockRule rule = new EasyMockRule(new Object());
+		rule.before(TestClassMetadata.forClass(Object.class));
+
+		Quotes unexpected = createMock("unexpected", Quotes.class);
+		replay(unexpected);
+
+		LoopbackServer<Quotes> failing = rule.serve(unexpected, CODEC);
+		LoopbackServer<Quotes> other = rule.serve(createMock("other", Quotes.class), CODEC);
+
+		Socket socket = new Socket(failing.getAddress().getAddress(), failing.getAddress().getPort());
+
+		try {
+			send(new DataOutputStream(socket.getOutputStream()), "ABC");
+			new DataInputStream(socket.getInputStream()).read();
+		} finally {
+			socket.close();
+		}
+
+		try {
+			rule.after(false);
+			fail("Expected the failed server to be reported");
+
+		} catch (AssertionError expected) {
+			assertThat(expected.getMessage(), containsString("Unexpected method call unexpected.price(\"ABC\")"));
+		}
+
+		try {
+			new Socket(other.getAddress().getAddress(), other.getAddress().getPort()).close();
+			fail("Expected the other server to be closed");
+
+		} catch (ConnectException expected) {
+			// Nothing listening any more
+		}
+	}
+
+	private void send(DataOutputStream out, String symbol) throws Exception {
+
+		byte[] bytes = symbol.getBytes(UTF8);
+
+		out.writeInt(bytes.length);
+		out.write(bytes);
+		out.flush();
+	}
+
+	/**
+	 * The service the client under test would call over the network.
+	 */
+	public interface Quotes {
+		int price(String symbol);
+	}
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import static org.easymock.EasyMock.expect;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.googlecode.easymockrule.EasyMockRuleTest.InterfaceMock;
+
+/**
+ * Unit tests for List, Map and array fields of mocks.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+public class MockBatchTest {
+
+	@Rule
+	public EasyMockRule mocks = new EasyMockRule(this);
+
+	@Mock(size = 3)
+	private List<InterfaceMock> tenants;
+
+	@NiceMock(size = 2)
+	private Map<String, InterfaceMock> regions;
+
+	@StrictMock(size = 2)
+	private InterfaceMock[] shards;
+
+	@TestSubject
+	private FanOut fanOut;
+
+	@Test
+	public void sizedFieldsShouldHoldNamedMocks() {
+
+		assertThat(tenants.size(), is(3));
+		assertThat(tenants.get(2).toString(), is("tenants2"));
+		assertThat(regions.keySet(), contains("regions0", "regions1"));
+		assertThat(regions.get("regions1").toString(), is("regions1"));
+		assertThat(shards.length, is(2));
+		assertThat(shards[0].toString(), is("shards0"));
+	}
+
+	@Test
+	public void batchesShouldBeInjectedIntoTestSubjects() {
+
+		assertThat(fanOut.tenants, sameInstance(tenants));
+		assertThat(fanOut.regions, sameInstance(regions));
+		assertThat(fanOut.shards, sameInstance(shards));
+	}
+
+	@Test
+	public void batchesShouldOnlyBeInjectedIntoEmptyFieldsOfTheirGenericType() throws Exception {
+
+		MismatchedFixture fixture = new MismatchedFixture();
+		EasyMockRule rule = new EasyMockRule(fixture);
+
+		rule.before(TestClassMetadata.forClass(MismatchedFixture.class));
+		try {
+			assertThat(fixture.directory.tenants, contains("alice", "bob"));
+			assertThat(fixture.directory.members, sameInstance((Collection<InterfaceMock>) fixture.tenants));
+			assertThat(fixture.directory.labels, nullValue());
+			assertThat(fixture.directory.byRegion, sameInstance((Object) fixture.regions));
+
+		} finally {
+			rule.after(false);
+		}
+	}
+
+	@Test
+	public void batchShouldBeVerifiedTogether() {
+
+		MockManager manager = new MockManager();
+		List<InterfaceMock> batch = manager.createMocks("batch", InterfaceMock.class, 100);
+
+		expect(batch.get(10).getOneThing()).andReturn(null);
+		expect(batch.get(20).getOneThing()).andReturn(null);
+
+		manager.replayAll();
+
+		batch.get(10).getOneThing();
+
+		try {
+			manager.verifyAll();
+			fail("Expected the missing call to fail verification");
+
+		} catch (AssertionError expected) {
+			assertThat(expected.getMessage(), containsString("Verification failed for batch[100]"));
+			assertThat(expected.getMessage(), containsString("batch20.getOneThing(): expected: 1, actual: 0"));
+		}
+
+		manager.releaseAll();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void sizeShouldNeedACollectionOfAMockableType() {
+		TestClassMetadata.forClass(UnsizableField.class);
+	}
+
+	/**
+	 * Fans calls out to many mocks.
+	 */
+	public static class FanOut {
+
+		private List<InterfaceMock> tenants;
+
+		private Map<String, InterfaceMock> regions;
+
+		private InterfaceMock[] shards;
+	}
+
+	/**
+	 * Batches whose names and runtime types match the wrong fields.
+	 */
+	public static class MismatchedFixture {
+
+		@Mock(size = 2)
+		private List<InterfaceMock> tenants;
+
+		@Mock(size = 2)
+		private Map<String, InterfaceMock> regions;
+
+		@TestSubject
+		private Directory directory;
+	}
+
+	/**
+	 * Holds lists and maps of other things alongside batches of mocks.
+	 */
+	public static class Directory {
+
+		private List<String> tenants = Arrays.asList("alice", "bob");
+
+		private Map<String, String> labels;
+
+		private Map<String, ? extends InterfaceMock> byRegion;
+
+		private Collection<InterfaceMock> members;
+	}
+
+	/**
+	 * Sized field that can't hold a batch of mocks.
+	 */
+	public static class UnsizableField {
+
+		@Mock(size = 2)
+		private InterfaceMock single;
+	}
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import static org.easymock.EasyMock.expect;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.fail;
+
+import org.easymock.classextension.EasyMock;
+import org.easymock.classextension.internal.ClassExtensionHelper;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.googlecode.easymockrule.EasyMockRuleTest.ClassMock;
+import com.googlecode.easymockrule.EasyMockRuleTest.InterfaceMock;
+
+/**
+ * Unit tests for looking into interface and class mocks.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+public class MockDetailsTest {
+
+	@Rule
+	public EasyMockRule mocks = new EasyMockRule(this).useSharedControls();
+
+	@StrictMock
+	private InterfaceMock interfaceMock;
+
+	@NiceMock
+	private ClassMock classMock;
+
+	@StrictMock
+	private InterfaceMock sharingMock;
+
+	@Test
+	public void classMocksShouldHaveTheirControlFound() {
+		assertThat(EasyMockUtils.getMockControl(classMock),
+				sameInstance(ClassExtensionHelper.getControl(classMock)));
+	}
+
+	@Test
+	public void externalSupportShouldManageClassMocks() {
+
+		ClassMock unmanaged = EasyMock.createMock(ClassMock.class);
+		ExternalMockSupport support = new ExternalMockSupport();
+
+		support.registerMock(unmanaged);
+		expect(unmanaged.getOneThing()).andReturn(null);
+		support.replayAll();
+
+		try {
+			support.verifyAll();
+			fail("Expected the missing call to fail verification");
+
+		} catch (AssertionError expected) {
+			assertThat(expected.getMessage(), containsString("getOneThing()"));
+		}
+	}
+
+	@Test
+	public void detailsShouldDescribeEachMock() {
+
+		MockDetails interfaceDetails = EasyMockUtils.getMockDetails(interfaceMock);
+		MockDetails classDetails = EasyMockUtils.getMockDetails(classMock);
+
+		assertThat(interfaceDetails.getName(), is("interfaceMock"));
+		assertThat(interfaceDetails.getKind(), is("STRICT"));
+		assertThat(interfaceDetails.getMockedType(), is((Object) InterfaceMock.class));
+
+		assertThat(classDetails.getName(), is("classMock"));
+		assertThat(classDetails.getKind(), is("NICE"));
+		assertThat(classDetails.getMockedType(), is((Object) ClassMock.class));
+		assertThat(EasyMockUtils.getMockType(classMock), is("NICE"));
+	}
+
+	@Test
+	public void detailsShouldFollowTheMockAsTheTestRuns() {
+
+		MockDetails details = EasyMockUtils.getMockDetails(interfaceMock);
+
+		expect(interfaceMock.getOneThing()).andReturn(null).times(2);
+		expect(sharingMock.getOneThing()).andReturn(null);
+
+		assertThat(details.isReplaying(), is(false));
+		assertThat(details.getExpectations(), is(1));
+		assertThat(details.getExpectedCalls(), is(2));
+
+		mocks.replayAll();
+		interfaceMock.getOneThing();
+
+		assertThat(details.isReplaying(), is(true));
+		assertThat(details.getCalls(), is(1));
+		assertThat(details.toString(), is("interfaceMock (STRICT, replaying): 1 of 2 expected calls"));
+
+		interfaceMock.getOneThing();
+		sharingMock.getOneThing();
+
+		assertThat(details.getCalls(), is(2));
+		assertThat(details.getControl(), sameInstance(EasyMockUtils.getMockControl(sharingMock)));
+		assertThat(EasyMockUtils.getMockDetails(sharingMock).getCalls(), is(1));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void detailsShouldRejectWhatIsNotAMock() {
+		EasyMockUtils.getMockDetails(new Object());
+	}
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+
+import org.easymock.classextension.internal.ClassExtensionHelper;
+import org.easymock.internal.MocksControl.MockType;
+import org.easymock.internal.ObjectMethodsFilter;
+import org.junit.After;
+import org.junit.Test;
+
+import com.googlecode.easymockrule.EasyMockRuleTest.ClassMock;
+import com.googlecode.easymockrule.EasyMockRuleTest.InterfaceMock;
+
+/**
+ * Checks that mocks of the same type share what they can, and how much heap
+ * each of many mocks holds on to. The budget is roughly twice what was
+ * measured when it was set.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+public class MockFootprintTest {
+
+	private static final int MOCKS = 10000;
+
+	private static final long BYTES_PER_MOCK = 600;
+
+	private MockManager mocks = new MockManager();
+
+	@After
+	public void releaseMocks() {
+		mocks.releaseAll();
+	}
+
+	@Test
+	public void interfaceMocksShouldShareTheObjectMethods() throws Exception {
+
+		Object first = Proxy.getInvocationHandler(mocks.createMock("first", InterfaceMock.class));
+		Object second = Proxy.getInvocationHandler(mocks.createNiceMock("second", InterfaceMock.class));
+
+		for (String name : new String[] { "equalsMethod", "hashCodeMethod", "toStringMethod" }) {
+
+			Field method = ObjectMethodsFilter.class.getDeclaredField(name);
+			method.setAccessible(true);
+
+			assertThat(name, method.get(second), sameInstance(method.get(first)));
+		}
+	}
+
+	@Test
+	public void classMocksShouldShareTheObjectMethods() throws Exception {
+
+		ClassMock firstMock = mocks.createMock("first", ClassMock.class);
+		Object first = ClassExtensionHelper.getInterceptor(firstMock).getHandler();
+		Object second = ClassExtensionHelper.getInterceptor(mocks.createStrictMock("second", ClassMock.class))
+				.getHandler();
+
+		for (String name : new String[] { "equalsMethod", "hashCodeMethod", "toStringMethod" }) {
+
+			Field method = ObjectMethodsFilter.class.getDeclaredField(name);
+			method.setAccessible(true);
+
+			assertThat(name, method.get(second), sameInstance(method.get(first)));
+		}
+
+		assertThat(firstMock.toString(), is("first"));
+		assertThat(firstMock.equals(firstMock), is(true));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldStillRejectNamesThatArentJavaIdentifiers() {
+		new ClassMockControl(MockType.DEFAULT).createMock("not valid", InterfaceMock.class);
+	}
+
+	@Test
+	public void tenThousandMocksShouldStayWithinTheirHeapBudget() {
+
+		String[] names = new String[MOCKS];
+		Object[] held = new Object[MOCKS];
+
+		for (int i = 0; i < MOCKS; i++) {
+			names[i] = "tenant" + i;
+		}
+
+		mocks.createMock("warmUp", InterfaceMock.class);
+
+		long before = usedHeap();
+
+		for (int i = 0; i < MOCKS; i++) {
+			held[i] = mocks.createMock(names[i], InterfaceMock.class);
+		}
+
+		long perMock = (usedHeap() - before) / MOCKS;
+
+		assertTrue(held.length + " mocks held " + perMock + " bytes each, budget is " + BYTES_PER_MOCK,
+				perMock <= BYTES_PER_MOCK);
+	}
+
+	private static long usedHeap() {
+
+		for (int i = 0; i < 4; i++) {
+			System.gc();
+		}
+
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+}
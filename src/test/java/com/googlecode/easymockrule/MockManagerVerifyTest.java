@@ -0,0 +1,105 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.fail;
+
+import org.easymock.internal.ReplayState;
+import org.junit.Test;
+
+import com.googlecode.easymockrule.EasyMockRuleTest.ClassMock;
+import com.googlecode.easymockrule.EasyMockRuleTest.InterfaceMock;
+import com.googlecode.easymockrule.EasyMockRuleTest.ManualMock;
+
+/**
+ * Unit tests for verifying all the mocks of a MockManager in one pass.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+public class MockManagerVerifyTest {
+
+	private MockManager mocks = new MockManager();
+
+	@Test
+	public void shouldReportEveryFailingMockByName() throws Exception {
+
+		InterfaceMock interfaceMock = mocks.createMock("interfaceMock", InterfaceMock.class);
+		InterfaceMock usedMock = mocks.createMock("usedMock", InterfaceMock.class);
+		ClassMock classMock = mocks.createStrictMock("classMock", ClassMock.class);
+
+		expect(interfaceMock.getOneThing()).andReturn(null);
+		expect(usedMock.getOneThing()).andReturn(null);
+		expect(classMock.getOneThing()).andReturn(null);
+
+		mocks.replayAll();
+
+		usedMock.getOneThing();
+
+		String message = verifyFailure();
+
+		assertThat(message, startsWith("Verification failed for interfaceMock, classMock\n"));
+		assertThat(message, containsString("\ninterfaceMock:\n  Expectation failure on verify:"));
+		assertThat(message, containsString("\nclassMock:\n  Expectation failure on verify:"));
+	}
+
+	@Test
+	public void shouldReplayMocksLeftInRecordStateBeforeVerifying() throws Exception {
+
+		InterfaceMock unused = mocks.createNiceMock("unused", InterfaceMock.class);
+		ManualMock manualMock = createMock(ManualMock.class);
+		mocks.registerMock(manualMock);
+		replay(manualMock);
+
+		mocks.verifyAll();
+
+		assertThat(EasyMockUtils.getMockControl(unused).getState(), instanceOf(ReplayState.class));
+	}
+
+	@Test
+	public void shouldNameEveryMockOfAFailingSharedControl() throws Exception {
+
+		mocks.shareControls();
+
+		InterfaceMock first = mocks.createMock("first", InterfaceMock.class);
+		mocks.createMock("second", InterfaceMock.class);
+
+		expect(first.getOneThing()).andReturn(null);
+
+		mocks.replayAll();
+
+		assertThat(verifyFailure(), startsWith("Verification failed for first, second\n"));
+	}
+
+	private String verifyFailure() {
+
+		try {
+			mocks.verifyAll();
+
+		} catch (AssertionError e) {
+			return e.getMessage();
+		}
+
+		fail("Expected verification to fail");
+		return null;
+	}
+}
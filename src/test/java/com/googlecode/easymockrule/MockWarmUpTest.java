@@ -0,0 +1,85 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.hasItems;
+import static org.hamcrest.Matchers.hasKey;
+import static org.hamcrest.Matchers.is;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.googlecode.easymockrule.EasyMockRuleTest.ClassMock;
+import com.googlecode.easymockrule.EasyMockRuleTest.InterfaceMock;
+
+/**
+ * Unit tests for the mock index written at compile time and the warm-up that
+ * reads it.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+public class MockWarmUpTest {
+
+	@Test
+	public void shouldIndexMockedTypesOfTestClasses() throws Exception {
+
+		Map<String, List<String>> index = MockIndex.read(getClass().getClassLoader());
+
+		assertThat(index, hasKey(EasyMockRuleTest.class.getName()));
+		assertThat(index.get(EasyMockRuleTest.class.getName()),
+				hasItems(InterfaceMock.class.getName(), ClassMock.class.getName()));
+	}
+
+	@Test
+	public void shouldWarmUpIndexedTypes() throws Exception {
+
+		int warmed = MockWarmUpListener.warmUp(getClass().getClassLoader());
+
+		assertThat(warmed, greaterThanOrEqualTo(2));
+	}
+
+	@Test
+	public void warmUpShouldFillTheCachesTheRuleCreatesMocksFrom() throws Exception {
+
+		MockWarmUpListener.warmUp(getClass().getClassLoader());
+
+		assertThat(ClassMockFactory.INSTANCE.isCached(WarmedClass.class), is(true));
+		assertThat(InterfaceMockFactory.INSTANCE.isCached(WarmedInterface.class), is(true));
+	}
+
+	/**
+	 * Mocks types that only the warm-up creates mocks of, so that only it can
+	 * have cached them.
+	 */
+	public static class WarmedUp {
+
+		@Mock
+		private WarmedClass warmedClass;
+
+		@Mock
+		private WarmedInterface warmedInterface;
+	}
+
+	public static class WarmedClass {
+	}
+
+	public interface WarmedInterface {
+	}
+}
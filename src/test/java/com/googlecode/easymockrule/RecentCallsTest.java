@@ -0,0 +1,117 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import static org.easymock.EasyMock.expect;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import com.googlecode.easymockrule.EasyMockRuleTest.ClassMock;
+
+/**
+ * Unit tests for the recent calls listed when verification fails.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+public class RecentCallsTest {
+
+	private MockManager mocks = new MockManager();
+
+	@Test
+	public void shouldListTheLastCallsToEachFailingMock() throws Exception {
+
+		mocks.keepRecentCalls(3);
+
+		Ledger ledger = mocks.createMock("ledger", Ledger.class);
+		ClassMock classMock = mocks.createNiceMock("classMock", ClassMock.class);
+
+		for (int i = 1; i <= 5; i++) {
+			ledger.record("entry", i);
+		}
+		ledger.record("missing", 0);
+		expect(classMock.getOneThing()).andReturn(null).times(2);
+
+		mocks.replayAll();
+
+		for (int i = 1; i <= 5; i++) {
+			ledger.record("entry", i);
+		}
+		classMock.getOneThing();
+
+		String message = verifyFailure();
+
+		assertThat(message, containsString("record(\"missing\", 0)"));
+		assertThat(message, containsString("\n  Last 3 of 5 calls to ledger:" + "\n    ledger.record(\"entry\", 3)"
+				+ "\n    ledger.record(\"entry\", 4)" + "\n    ledger.record(\"entry\", 5)"));
+		assertThat(message, containsString("\n  Last 1 of 1 calls to classMock:\n    classMock.getOneThing()"));
+	}
+
+	@Test
+	public void shouldKeepCallsOncePerSharedControl() throws Exception {
+
+		mocks.shareControls();
+		mocks.keepRecentCalls(2);
+
+		Ledger first = mocks.createMock("first", Ledger.class);
+		Ledger second = mocks.createMock("second", Ledger.class);
+
+		first.record("a", 1);
+		second.record("b", 2);
+		second.record("missing", 0);
+
+		mocks.replayAll();
+
+		first.record("a", 1);
+		second.record("b", 2);
+
+		assertThat(verifyFailure(), containsString("\n  Last 2 of 2 calls to the DEFAULT mocks:"
+				+ "\n    first.record(\"a\", 1)" + "\n    second.record(\"b\", 2)"));
+	}
+
+	@Test
+	public void shouldLeaveFailureAloneWithoutRecentCalls() throws Exception {
+
+		Ledger ledger = mocks.createMock("ledger", Ledger.class);
+
+		ledger.record("missing", 0);
+
+		mocks.replayAll();
+
+		assertThat(verifyFailure(), not(containsString("Last")));
+	}
+
+	private String verifyFailure() {
+
+		try {
+			mocks.verifyAll();
+
+		} catch (AssertionError e) {
+			return e.getMessage();
+		}
+
+		fail("Expected verification to fail");
+		return null;
+	}
+
+	public interface Ledger {
+
+		void record(String entry, int amount);
+	}
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit tests for recording and checking the setup time baseline.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+public class SetupBaselineTest {
+
+	private static final long MILLIS = 1000000L;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Properties saved = (Properties) System.getProperties().clone();
+
+	@After
+	public void restoreSystemProperties() {
+		System.setProperties(saved);
+	}
+
+	@Test
+	public void slowerClassShouldBeReportedAgainstTheRecordedMean() throws Exception {
+
+		File file = folder.newFile("baseline.properties");
+
+		SetupBaseline recorded = new SetupBaseline();
+		recorded.measured(Light.class, 2 * MILLIS);
+		recorded.measured(Light.class, 3 * MILLIS);
+		recorded.measured(Light.class, 50 * MILLIS);
+		recorded.measured(Heavy.class, 2 * MILLIS);
+		recorded.record(file);
+
+		SetupBaseline measured = new SetupBaseline();
+		measured.measured(Light.class, 4 * MILLIS);
+		measured.measured(Heavy.class, 9 * MILLIS);
+		measured.measured(Unknown.class, 100 * MILLIS);
+
+		List<String> regressions = measured.findRegressions(file, 2.0, MILLIS);
+
+		assertThat(regressions, hasSize(1));
+		assertThat(regressions.get(0), containsString(Heavy.class.getName() + " took 9.00ms"));
+		assertThat(regressions.get(0), containsString("baseline is 2.00ms"));
+
+		assertThat(measured.findRegressions(file, 2.0, 10 * MILLIS), is(empty()));
+	}
+
+	@Test
+	public void checkModeShouldFailTheRun() throws Exception {
+
+		File file = folder.newFile("baseline.properties");
+
+		SetupBaseline baseline = new SetupBaseline();
+		baseline.measured(Heavy.class, MILLIS);
+		baseline.record(file);
+
+		baseline.clear();
+		baseline.measured(Heavy.class, 5 * MILLIS);
+
+		System.setProperty(SetupBaselineListener.MODE, "check");
+		System.setProperty(SetupBaselineListener.FILE, file.getPath());
+		System.setProperty(SetupBaselineListener.REPORT, new File(folder.getRoot(), "report.txt").getPath());
+
+		try {
+			new SetupBaselineListener(baseline).testRunFinished(null);
+			fail("Expected the slower class to fail the run");
+
+		} catch (IllegalStateException expected) {
+			assertThat(expected.getMessage(), containsString(Heavy.class.getName()));
+		}
+	}
+
+	@Test
+	public void warnModeShouldReportSlowerClassesToAFile() throws Exception {
+
+		File file = folder.newFile("baseline.properties");
+		File report = new File(folder.getRoot(), "reports/baseline.txt");
+
+		SetupBaseline baseline = new SetupBaseline();
+		baseline.measured(Heavy.class, MILLIS);
+		baseline.record(file);
+
+		baseline.clear();
+		baseline.measured(Heavy.class, 5 * MILLIS);
+
+		System.setProperty(SetupBaselineListener.MODE, "warn");
+		System.setProperty(SetupBaselineListener.FILE, file.getPath());
+		System.setProperty(SetupBaselineListener.REPORT, report.getPath());
+
+		new SetupBaselineListener(baseline).testRunFinished(null);
+
+		String content = new String(Files.readAllBytes(report.toPath()), "UTF-8");
+		assertThat(content, containsString(Heavy.class.getName() + " took 5.00ms"));
+
+		baseline.clear();
+		baseline.measured(Heavy.class, MILLIS);
+
+		new SetupBaselineListener(baseline).testRunFinished(null);
+
+		assertThat(report.exists(), is(false));
+	}
+
+	@Test
+	public void recordShouldKeepTheBaselineOfClassesThatDidntRun() throws Exception {
+
+		File file = folder.newFile("baseline.properties");
+
+		SetupBaseline first = new SetupBaseline();
+		first.measured(Light.class, MILLIS);
+		first.record(file);
+
+		SetupBaseline second = new SetupBaseline();
+		second.measured(Heavy.class, 2 * MILLIS);
+		second.record(file);
+
+		Properties recorded = new Properties();
+		recorded.load(new ByteArrayInputStream(Files.readAllBytes(file.toPath())));
+
+		assertThat(recorded.getProperty(Light.class.getName()), is(String.valueOf(MILLIS)));
+		assertThat(recorded.getProperty(Heavy.class.getName()), is(String.valueOf(2 * MILLIS)));
+	}
+
+	@Test
+	public void timesShouldOnlyBeCollectedWhenAsked() throws Exception {
+
+		SetupBaseline baseline = new SetupBaseline(false);
+		baseline.measured(Light.class, MILLIS);
+
+		assertThat(baseline.getMeans().isEmpty(), is(true));
+	}
+
+	static class Light {
+	}
+
+	static class Heavy {
+	}
+
+	static class Unknown {
+	}
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import static org.easymock.EasyMock.expect;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.fail;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.googlecode.easymockrule.EasyMockRuleTest.ClassMock;
+import com.googlecode.easymockrule.EasyMockRuleTest.InterfaceMock;
+import com.googlecode.easymockrule.EasyMockRuleTest.ManualMock;
+import com.googlecode.easymockrule.EasyMockRuleTest.Thing;
+import com.googlecode.easymockrule.EasyMockRuleTest.WiredByTypeMock;
+
+/**
+ * Unit tests for mocks backed by shared controls.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+public class SharedControlsTest {
+
+	@Rule
+	public EasyMockRule mocks = new EasyMockRule(this).useSharedControls();
+
+	@StrictMock
+	private InterfaceMock interfaceMock;
+
+	@StrictMock
+	private WiredByTypeMock wiredByTypeMock;
+
+	@Mock
+	private ManualMock manualMock;
+
+	@NiceMock
+	private ClassMock classMock;
+
+	@TestSubject
+	private EasyMockTestSubject testSubject;
+
+	@Test
+	public void shouldShareOneControlPerMockType() throws Exception {
+
+		assertThat(EasyMockUtils.getMockControl(interfaceMock),
+				sameInstance(EasyMockUtils.getMockControl(wiredByTypeMock)));
+		assertThat(EasyMockUtils.getMockControl(interfaceMock),
+				not(sameInstance(EasyMockUtils.getMockControl(manualMock))));
+		assertThat(EasyMockUtils.getMockType(interfaceMock), is("STRICT"));
+		assertThat(EasyMockUtils.getMockType(manualMock), is("DEFAULT"));
+	}
+
+	@Test
+	public void shouldCheckCallOrderAcrossStrictMocks() throws Exception {
+
+		Thing first = new EasyMockRuleTest().new Thing("first");
+		Thing second = new EasyMockRuleTest().new Thing("second");
+
+		expect(interfaceMock.getOneThing()).andReturn(first);
+		expect(wiredByTypeMock.getOneThing()).andReturn(second);
+
+		mocks.replayAll();
+
+		try {
+			testSubject.useWiredByTypeMock();
+			throw new IllegalStateException("Should have rejected a call out of order");
+
+		} catch (AssertionError e) {
+			// Expected
+		}
+
+		assertThat(testSubject.useInterfaceMock(), sameInstance(first));
+		assertThat(testSubject.useWiredByTypeMock(), sameInstance(second));
+	}
+
+	@Test
+	public void deregisteringAMockShouldKeepTheOthersOnItsControl() throws Exception {
+
+		EasyMockRuleStatistics statistics = EasyMockRuleStatistics.getInstance();
+		long liveMocks = statistics.getLiveMocks();
+
+		MockManager manager = new MockManager();
+		manager.shareControls();
+
+		InterfaceMock leaving = manager.createMock("leaving", InterfaceMock.class);
+		InterfaceMock staying = manager.createMock("staying", InterfaceMock.class);
+
+		manager.deregisterMock(leaving);
+
+		assertThat(statistics.getLiveMocks(), is(liveMocks + 1));
+
+		expect(staying.getOneThing()).andReturn(null);
+		manager.replayAll();
+
+		try {
+			manager.verifyAll();
+			fail("Expected the missing call to fail verification");
+
+		} catch (AssertionError expected) {
+			assertThat(expected.getMessage(), containsString("Verification failed for staying\n"));
+		}
+
+		manager.deregisterMock(staying);
+
+		assertThat(statistics.getLiveMocks(), is(liveMocks));
+
+		manager.verifyAll();
+		manager.releaseAll();
+
+		assertThat(statistics.getLiveMocks(), is(liveMocks));
+	}
+
+	@Test
+	public void shouldCreateClassMocksFromSharedControls() throws Exception {
+
+		mocks.replayAll();
+
+		assertThat(testSubject.useClassMock(), is((Thing) null));
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.googlecode.easymockrule.EasyMockRuleTest.ClassMock;
+import com.googlecode.easymockrule.EasyMockRuleTest.InterfaceMock;
+import com.googlecode.easymockrule.TestCosts.ClassCost;
+
+/**
+ * Unit tests for exporting test class costs and balancing forks by them.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+public class TestCostsTest {
+
+	private static final long MILLIS = 1000000L;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void costsShouldBeMergedIntoTheFile() throws Exception {
+
+		File file = folder.newFile("costs.tsv");
+
+		TestCosts first = new TestCosts();
+		first.measured(Mocking.class, TestClassMetadata.forClass(Mocking.class), MILLIS, 5 * MILLIS);
+		first.measured(Plain.class, TestClassMetadata.forClass(Plain.class), 0, MILLIS);
+		first.write(file);
+
+		TestCosts second = new TestCosts();
+		second.measured(Mocking.class, TestClassMetadata.forClass(Mocking.class), 2 * MILLIS, 6 * MILLIS);
+		second.measured(Mocking.class, TestClassMetadata.forClass(Mocking.class), 2 * MILLIS, 8 * MILLIS);
+		second.write(file);
+
+		Map<String, ClassCost> costs = TestCosts.read(file);
+		ClassCost mocking = costs.get(Mocking.class.getName());
+
+		assertThat(mocking.getTests(), is(2));
+		assertThat(mocking.getDefaultMocks(), is(3));
+		assertThat(mocking.getNiceMocks(), is(0));
+		assertThat(mocking.getStrictMocks(), is(1));
+		assertThat(mocking.getCreationNanos(), is(4 * MILLIS));
+		assertThat(mocking.getTestNanos(), is(14 * MILLIS));
+		assertThat(mocking.getMockedTypes(), contains(ClassMock.class.getName(), InterfaceMock.class.getName()));
+
+		assertThat(costs.get(Plain.class.getName()).getTestNanos(), is(MILLIS));
+		assertThat(costs.get(Plain.class.getName()).getMockedTypes(), is(empty()));
+	}
+
+	@Test
+	public void costsShouldOnlyBeCollectedWhenAsked() throws Exception {
+
+		TestCosts costs = new TestCosts(false);
+		costs.measured(Mocking.class, TestClassMetadata.forClass(Mocking.class), MILLIS, 5 * MILLIS);
+
+		assertThat(costs.getCosts().isEmpty(), is(true));
+	}
+
+	@Test
+	public void forksShouldBeBalancedKeepingSharedTypesTogether() throws Exception {
+
+		File file = folder.newFile("costs.tsv");
+
+		TestCosts costs = new TestCosts();
+		costs.measured(Mocking.class, TestClassMetadata.forClass(Mocking.class), 0, 40 * MILLIS);
+		costs.measured(SharingInterface.class, TestClassMetadata.forClass(SharingInterface.class), 0, 10 * MILLIS);
+		costs.measured(SharingClass.class, TestClassMetadata.forClass(SharingClass.class), 0, 10 * MILLIS);
+		costs.measured(Plain.class, TestClassMetadata.forClass(Plain.class), 0, 30 * MILLIS);
+		costs.measured(AlsoPlain.class, TestClassMetadata.forClass(AlsoPlain.class), 0, 30 * MILLIS);
+		costs.write(file);
+
+		List<List<String>> forks = ForkBalancer.balance(TestCosts.read(file), 2);
+
+		assertThat(forks.get(0), contains(Mocking.class.getName(), SharingClass.class.getName(),
+				SharingInterface.class.getName()));
+		assertThat(forks.get(1), contains(AlsoPlain.class.getName(), Plain.class.getName()));
+
+		// Together the mocking classes would take more than half the time
+		forks = ForkBalancer.balance(TestCosts.read(file), 3);
+
+		assertThat(forks.get(0), contains(Mocking.class.getName()));
+		assertThat(forks.get(1), contains(AlsoPlain.class.getName(), SharingClass.class.getName()));
+		assertThat(forks.get(2), contains(Plain.class.getName(), SharingInterface.class.getName()));
+	}
+
+	/**
+	 * Declares mocks of two types.
+	 */
+	public static class Mocking {
+
+		@Mock(size = 2)
+		private InterfaceMock[] interfaceMocks;
+
+		@Mock
+		private ClassMock classMock;
+
+		@StrictMock
+		private InterfaceMock strictMock;
+	}
+
+	/**
+	 * Mocks one of the same types.
+	 */
+	public static class SharingInterface {
+
+		@NiceMock
+		private InterfaceMock interfaceMock;
+	}
+
+	/**
+	 * Mocks the other.
+	 */
+	public static class SharingClass {
+
+		@Mock
+		private ClassMock classMock;
+	}
+
+	/**
+	 * Declares no mocks.
+	 */
+	public static class Plain {
+	}
+
+	/**
+	 * Declares no mocks either.
+	 */
+	public static class AlsoPlain {
+	}
+}
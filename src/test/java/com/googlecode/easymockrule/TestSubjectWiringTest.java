@@ -0,0 +1,207 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.googlecode.easymockrule.EasyMockRuleTest.InterfaceMock;
+
+/**
+ * Unit tests for wiring test subjects into each other.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+public class TestSubjectWiringTest {
+
+	@Rule
+	public EasyMockRule mocks = new EasyMockRule(this);
+
+	@Mock
+	private InterfaceMock interfaceMock;
+
+	@TestSubject
+	private Service service;
+
+	@TestSubject
+	private Repository repository;
+
+	@TestSubject
+	private Auditor auditor;
+
+	@Test
+	public void shouldCreateTestSubjectsAfterTheTestSubjectsTheyAreConstructedWith() throws Exception {
+		assertThat(service.repository, sameInstance(repository));
+	}
+
+	@Test
+	public void shouldInjectTestSubjectsIntoFieldsOfOtherTestSubjects() throws Exception {
+
+		assertThat(auditor.service, sameInstance(service));
+		assertThat(auditor.audited, sameInstance(repository));
+	}
+
+	@Test
+	public void shouldStillInjectMocksIntoTestSubjects() throws Exception {
+		assertThat(repository.interfaceMock, sameInstance(interfaceMock));
+	}
+
+	@Test
+	public void shouldOnlyWireEmptyFieldsThatCanBeSet() throws Exception {
+
+		UntidyFixture fixture = new UntidyFixture();
+		EasyMockRule rule = new EasyMockRule(fixture);
+
+		rule.before(TestClassMetadata.forClass(UntidyFixture.class));
+		try {
+			assertThat(fixture.holder.anything, sameInstance((Object) fixture.interfaceMock));
+			assertThat(fixture.holder.store, sameInstance(fixture.repository));
+			assertThat(fixture.keeper.kept, sameInstance(Keeper.KEPT));
+
+		} finally {
+			rule.after(false);
+		}
+	}
+
+	@Test
+	public void shouldPlanWithoutCycles() throws Exception {
+		assertThat(TestClassMetadata.forClass(getClass()).getWiringPlan().getCycle(), nullValue());
+	}
+
+	@Test
+	public void shouldDescribeConstructorCycles() throws Exception {
+
+		WiringPlan plan = TestClassMetadata.forClass(Cyclic.class).getWiringPlan();
+
+		assertThat(plan.getCycle(), containsString("chicken (" + Chicken.class.getName() + ") -> egg ("
+				+ Egg.class.getName() + ") -> chicken"));
+
+		try {
+			plan.assertCreatable(0);
+			throw new AssertionError("Should not be creatable");
+
+		} catch (IllegalStateException e) {
+			assertThat(e.getMessage(), is(plan.getCycle()));
+		}
+	}
+
+	/**
+	 * Constructed with another test subject.
+	 */
+	public static class Service {
+
+		private final Repository repository;
+
+		public Service(Repository repository) {
+			this.repository = repository;
+		}
+	}
+
+	/**
+	 * Gets a mock injected into its field.
+	 */
+	public static class Repository {
+
+		private InterfaceMock interfaceMock;
+	}
+
+	/**
+	 * Gets other test subjects injected into its fields, by name and by type.
+	 */
+	public static class Auditor {
+
+		private Service service;
+
+		private Repository audited;
+	}
+
+	/**
+	 * Test subjects with fields that mustn't be wired over.
+	 */
+	public static class UntidyFixture {
+
+		@Mock
+		private InterfaceMock interfaceMock;
+
+		@TestSubject
+		private Holder holder;
+
+		@TestSubject
+		private Keeper keeper;
+
+		@TestSubject
+		private Repository repository;
+	}
+
+	/**
+	 * Has a constant, an Object field that the mock is injected into by type,
+	 * and an empty field for a repository.
+	 */
+	public static class Holder {
+
+		private static final Object LOCK = new Object();
+
+		private Object anything;
+
+		private Repository store;
+	}
+
+	/**
+	 * Already has its repository.
+	 */
+	public static class Keeper {
+
+		static final Repository KEPT = new Repository();
+
+		private Repository kept = KEPT;
+	}
+
+	/**
+	 * Test subjects that need each other to be created.
+	 */
+	public static class Cyclic {
+
+		@TestSubject
+		private Chicken chicken;
+
+		@TestSubject
+		private Egg egg;
+	}
+
+	/**
+	 * Needs an egg.
+	 */
+	public static class Chicken {
+
+		public Chicken(Egg egg) {
+		}
+	}
+
+	/**
+	 * Needs a chicken.
+	 */
+	public static class Egg {
+
+		public Egg(Chicken chicken) {
+		}
+	}
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import static org.easymock.EasyMock.expect;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assume.assumeNotNull;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.googlecode.easymockrule.EasyMockRuleTest.InterfaceMock;
+
+/**
+ * Unit tests for calling mocks from virtual threads, on JDKs that have them.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+public class VirtualThreadMockTest {
+
+	private static final int CALLS = 100000;
+
+	private MockManager mocks = new MockManager();
+
+	@Test
+	public void mockShouldAnswerEveryVirtualThread() throws Exception {
+
+		ExecutorService executor = newVirtualThreadPerTaskExecutor();
+		assumeNotNull(executor);
+
+		final InterfaceMock interfaceMock = mocks.createMock("interfaceMock", InterfaceMock.class);
+		expect(interfaceMock.getOneThing()).andReturn(null).times(CALLS);
+
+		mocks.replayAll();
+
+		final AtomicInteger answered = new AtomicInteger();
+
+		for (int i = 0; i < CALLS; i++) {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					interfaceMock.getOneThing();
+					answered.incrementAndGet();
+				}
+			});
+		}
+
+		executor.shutdown();
+		assertThat(executor.awaitTermination(1, TimeUnit.MINUTES), is(true));
+
+		assertThat(answered.get(), is(CALLS));
+		mocks.checkpoint();
+		mocks.verifyAll();
+	}
+
+	// Found reflectively, as this builds for JDKs without virtual threads.
+	private static ExecutorService newVirtualThreadPerTaskExecutor() throws Exception {
+
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,346 @@
+/*
+ * Copyright 2012-2013 Alistair Todd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.easymockrule;
+
+import static org.easymock.EasyMock.expect;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.googlecode.easymockrule.EasyMockRuleTest.InterfaceMock;
+
+/**
+ * Unit tests for running test subjects' scheduled tasks in virtual time.
+ * 
+ * @author Alistair Todd <ringracer@gmail.com>
+ */
+public class VirtualTimeSchedulerTest {
+
+	@Rule
+	public EasyMockRule mocks = new EasyMockRule(this).useVirtualTime();
+
+	@Mock
+	private InterfaceMock service;
+
+	@TestSubject
+	private Retrier retrier;
+
+	@TestSubject
+	private Relay relay;
+
+	@Test
+	public void schedulerShouldBeInjectedIntoEverySubjectThatTakesIt() {
+
+		assertThat(retrier.executor, sameInstance((Object) mocks.getScheduler()));
+		assertThat(relay.executor, sameInstance((Object) mocks.getScheduler()));
+	}
+
+	@Test
+	public void retryShouldRunOnlyWhenItsDelayHasPassed() {
+
+		expect(service.getOneThing()).andThrow(new IllegalStateException("Unavailable"));
+		expect(service.getOneThing()).andReturn(null);
+
+		mocks.replayAll();
+
+		retrier.attempt();
+
+		assertThat(mocks.getScheduler().advance(4999, TimeUnit.MILLISECONDS), is(0));
+		assertThat(retrier.attempts, is(1));
+
+		assertThat(mocks.getScheduler().advance(1, TimeUnit.MILLISECONDS), is(1));
+		assertThat(retrier.attempts, is(2));
+		assertThat(mocks.getScheduler().currentTimeMillis(), is(5000L));
+	}
+
+	@Test
+	public void tasksShouldRunInTheOrderTheyFallDue() {
+
+		VirtualTimeScheduler scheduler = new VirtualTimeScheduler();
+		final List<String> ran = new ArrayList<String>();
+
+		scheduler.scheduleAtFixedRate(new Record(ran, "rate", scheduler), 3, 3, TimeUnit.SECONDS);
+		scheduler.scheduleWithFixedDelay(new Record(ran, "delay", scheduler), 0, 4, TimeUnit.SECONDS);
+		scheduler.schedule(new Record(ran, "once", scheduler), 6, TimeUnit.SECONDS);
+		scheduler.execute(new Record(ran, "now", scheduler));
+
+		scheduler.advance(9, TimeUnit.SECONDS);
+
+		assertThat(ran, contains("delay@0", "now@0", "rate@3", "delay@4", "rate@6", "once@6", "delay@8", "rate@9"));
+	}
+
+	@Test
+	public void cancelledAndShutDownTasksShouldNotRun() {
+
+		VirtualTimeScheduler scheduler = new VirtualTimeScheduler();
+		List<String> ran = new ArrayList<String>();
+
+		ScheduledFuture<?> cancelled = scheduler.schedule(new Record(ran, "cancelled", scheduler), 1,
+				TimeUnit.SECONDS);
+		scheduler.scheduleAtFixedRate(new Record(ran, "rate", scheduler), 1, 1, TimeUnit.SECONDS);
+		scheduler.schedule(new Record(ran, "once", scheduler), 2, TimeUnit.SECONDS);
+
+		cancelled.cancel(false);
+		scheduler.advance(1, TimeUnit.SECONDS);
+		scheduler.shutdown();
+		scheduler.advance(1, TimeUnit.MINUTES);
+
+		assertThat(ran, contains("rate@1", "once@2"));
+		assertThat(scheduler.isTerminated(), is(true));
+	}
+
+	@Test
+	public void schedulerShouldNotReplaceMocksOrValuesAlreadyInjected() throws Exception {
+
+		TimedFixture fixture = new TimedFixture();
+		EasyMockRule rule = new EasyMockRule(fixture).useVirtualTime();
+
+		rule.before(TestClassMetadata.forClass(TimedFixture.class));
+		try {
+			assertThat(fixture.subject.executor, sameInstance(fixture.executor));
+			assertThat(fixture.subject.timer, sameInstance((Object) rule.getScheduler()));
+			assertThat(fixture.subject.lock, is(not(sameInstance((Object) rule.getScheduler()))));
+			assertThat(fixture.subject.clock, is(rule.getScheduler().getClock()));
+			assertThat(fixture.subject.systemClock, is(Clock.systemUTC()));
+
+		} finally {
+			rule.after(false);
+		}
+	}
+
+	@Test
+	public void schedulerShouldNotReplaceASchedulerFieldAlreadyInjected() throws Exception {
+
+		NamedFixture fixture = new NamedFixture();
+		EasyMockRule rule = new EasyMockRule(fixture).useVirtualTime();
+
+		rule.before(TestClassMetadata.forClass(NamedFixture.class));
+		try {
+			assertThat(fixture.subject.scheduler, sameInstance(fixture.scheduler));
+			assertThat(fixture.subject.executor, is(nullValue()));
+
+		} finally {
+			rule.after(false);
+		}
+	}
+
+	@Test
+	public void clockShouldReadTheVirtualTime() {
+
+		VirtualTimeScheduler scheduler = new VirtualTimeScheduler();
+		Clock clock = scheduler.getClock();
+
+		assertThat(clock.instant(), is(Instant.EPOCH));
+
+		scheduler.advance(1500, TimeUnit.MILLISECONDS);
+		scheduler.advance(7, TimeUnit.NANOSECONDS);
+
+		assertThat(clock.millis(), is(1500L));
+		assertThat(clock.instant(), is(Instant.ofEpochSecond(1, 500000007)));
+		assertThat(clock.withZone(ZoneId.of("Europe/London")).instant(), is(clock.instant()));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void schedulerShouldNotBeInjectedWhenTheFieldIsAmbiguous() throws Exception {
+
+		AmbiguousFixture fixture = new AmbiguousFixture();
+		EasyMockRule rule = new EasyMockRule(fixture).useVirtualTime();
+
+		try {
+			rule.before(TestClassMetadata.forClass(AmbiguousFixture.class));
+		} finally {
+			rule.after(false);
+		}
+	}
+
+	@Test
+	public void invokeAllShouldRunTheTasksOnTheCallingThread() throws Exception {
+
+		VirtualTimeScheduler scheduler = new VirtualTimeScheduler();
+
+		List<Future<Thread>> futures = scheduler.invokeAll(Arrays.asList(new CurrentThread(), new CurrentThread()));
+
+		assertThat(futures.get(0).get(), is(Thread.currentThread()));
+		assertThat(futures.get(1).get(), is(Thread.currentThread()));
+		assertThat(scheduler.getPendingTasks(), is(0));
+	}
+
+	@Test
+	public void invokeAnyShouldReturnTheFirstTaskToSucceed() throws Exception {
+
+		VirtualTimeScheduler scheduler = new VirtualTimeScheduler();
+
+		Callable<Thread> failing = new Callable<Thread>() {
+			@Override
+			public Thread call() {
+				throw new IllegalStateException("Unavailable");
+			}
+		};
+
+		assertThat(scheduler.invokeAny(Arrays.asList(failing, new CurrentThread())), is(Thread.currentThread()));
+	}
+
+	/**
+	 * Has a mock Executor of its own besides the scheduler.
+	 */
+	public static class TimedFixture {
+
+		@Mock
+		private Executor executor;
+
+		@TestSubject
+		private Timed subject;
+	}
+
+	/**
+	 * Takes an Executor by name, a scheduler by type, a Clock, and a lock and
+	 * a Clock of its own that must be left alone.
+	 */
+	public static class Timed {
+
+		private Executor executor;
+
+		private ScheduledExecutorService timer;
+
+		private Object lock = new Object();
+
+		private Clock clock;
+
+		private Clock systemClock = Clock.systemUTC();
+	}
+
+	/**
+	 * Has a mock scheduler injected by name.
+	 */
+	public static class NamedFixture {
+
+		@Mock
+		private ScheduledExecutorService scheduler;
+
+		@TestSubject
+		private Named subject;
+	}
+
+	public static class Named {
+
+		private ScheduledExecutorService scheduler;
+
+		private Executor executor;
+	}
+
+	/**
+	 * Offers the scheduler two fields to choose between.
+	 */
+	public static class AmbiguousFixture {
+
+		@TestSubject
+		private Ambiguous subject;
+	}
+
+	public static class Ambiguous {
+
+		Executor first;
+
+		Executor second;
+	}
+
+	private static class CurrentThread implements Callable<Thread> {
+
+		@Override
+		public Thread call() {
+			return Thread.currentThread();
+		}
+	}
+
+	/**
+	 * Calls its service, trying again five seconds after each failure.
+	 */
+	public static class Retrier {
+
+		private InterfaceMock service;
+
+		private ScheduledExecutorService executor;
+
+		private int attempts;
+
+		void attempt() {
+
+			attempts++;
+
+			try {
+				service.getOneThing();
+
+			} catch (IllegalStateException e) {
+				executor.schedule(new Runnable() {
+					@Override
+					public void run() {
+						attempt();
+					}
+				}, 5, TimeUnit.SECONDS);
+			}
+		}
+	}
+
+	/**
+	 * Takes any kind of Executor.
+	 */
+	public static class Relay {
+
+		private Executor executor;
+	}
+
+	/**
+	 * Records its name and the virtual time it ran at, in seconds.
+	 */
+	private static class Record implements Runnable {
+
+		private final List<String> ran;
+
+		private final String name;
+
+		private final VirtualTimeScheduler scheduler;
+
+		Record(List<String> ran, String name, VirtualTimeScheduler scheduler) {
+			this.ran = ran;
+			this.name = name;
+			this.scheduler = scheduler;
+		}
+
+		@Override
+		public void run() {
+			ran.add(name + "@" + TimeUnit.NANOSECONDS.toSeconds(scheduler.nanoTime()));
+		}
+	}
+}